@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package benchmarks;
+
+import org.HdrHistogram.Recorder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.ConsumerTool;
+import tools.MessageProperties;
+import tools.SessionStats;
+import tools.ThroughputCounters;
+import tools.WallClock;
+
+import javax.jms.BytesMessage;
+import javax.jms.Message;
+import javax.jms.Session;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of ConsumerTool.handleMessage for an already received message, including the latency and throughput
+ * recording, with per message logging disabled as it is by default.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandleMessageBenchmark {
+    @Param({"text", "bytes"})
+    private String messageType;
+
+    private Session session;
+    private ConsumerTool consumerTool;
+    private SessionStats stats;
+    private Message message;
+    private int count;
+
+    @Setup
+    public void setup(EmbeddedBroker broker) throws Exception {
+        session = broker.createSession();
+        consumerTool = new ConsumerTool();
+        consumerTool.parseCommandLine(new String[0]);
+        consumerTool.setupRunControl();
+        stats = new SessionStats(new Recorder(3), new ThroughputCounters("benchmark"));
+
+        if (messageType.equals("bytes")) {
+            BytesMessage bytesMessage = session.createBytesMessage();
+            bytesMessage.writeBytes(new byte[1024]);
+            bytesMessage.setLongProperty(MessageProperties.SEND_TIME_MICROS, WallClock.currentTimeMicros());
+            //Switch to read-only mode like a received message
+            bytesMessage.reset();
+            message = bytesMessage;
+        } else {
+            message = session.createTextMessage("Message 0 at benchmark start");
+            message.setLongProperty(MessageProperties.SEND_TIME_MICROS, WallClock.currentTimeMicros());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        session.close();
+    }
+
+    @Benchmark
+    public void handleMessage() {
+        consumerTool.handleMessage(session, message, ++count, stats);
+    }
+}
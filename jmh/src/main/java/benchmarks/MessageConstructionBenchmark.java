@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.MessageBuilder;
+import tools.MessageProperties;
+import tools.PayloadPool;
+import tools.WallClock;
+
+import javax.jms.Message;
+import javax.jms.Session;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a message the way ProducerTool does for each send, for text and padded bytes messages, with
+ * generated or precomputed bodies.  Run with -prof gc to see the allocation per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageConstructionBenchmark {
+    @Param({"-1", "1024", "65536"})
+    private int bytesLength;
+
+    @Param({"generated", "fixed"})
+    private String payloadMode;
+
+    private Session session;
+    private MessageBuilder messageBuilder;
+    private Message propertiesMessage;
+    private int index;
+
+    @Setup
+    public void setup(EmbeddedBroker broker) throws Exception {
+        session = broker.createSession();
+        PayloadPool payloadPool = null;
+        if (payloadMode.equals("fixed")) {
+            payloadPool = PayloadPool.fixed(bytesLength > -1 ? bytesLength : 100);
+        }
+        messageBuilder = new MessageBuilder(bytesLength, payloadPool);
+        propertiesMessage = session.createMessage();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        session.close();
+    }
+
+    @Benchmark
+    public Message buildMessage() throws Exception {
+        return messageBuilder.build(session, index++);
+    }
+
+    @Benchmark
+    public Message setProperties() throws Exception {
+        propertiesMessage.clearProperties();
+        propertiesMessage.setStringProperty("JMSXGroupID", "Group-A");
+        propertiesMessage.setLongProperty(MessageProperties.SEND_TIME_MICROS, WallClock.currentTimeMicros());
+        return propertiesMessage;
+    }
+}
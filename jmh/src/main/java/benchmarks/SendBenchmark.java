@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.MessageBuilder;
+import tools.MessageProperties;
+import tools.PayloadPool;
+import tools.WallClock;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds and sends a non-persistent message to a topic with no subscribers over the vm:// transport, which covers
+ * the client side of a ProducerTool send with the broker doing as little as possible.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendBenchmark {
+    @Param({"-1", "1024"})
+    private int bytesLength;
+
+    private Session session;
+    private MessageProducer producer;
+    private MessageBuilder messageBuilder;
+    private int index;
+
+    @Setup
+    public void setup(EmbeddedBroker broker) throws Exception {
+        session = broker.createSession();
+        producer = session.createProducer(session.createTopic("JMH.SEND"));
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        messageBuilder = new MessageBuilder(bytesLength, PayloadPool.fixed(bytesLength > -1 ? bytesLength : 100));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        session.close();
+    }
+
+    @Benchmark
+    public void send() throws Exception {
+        Message message = messageBuilder.build(session, index++);
+        message.setLongProperty(MessageProperties.SEND_TIME_MICROS, WallClock.currentTimeMicros());
+        producer.send(message);
+    }
+}
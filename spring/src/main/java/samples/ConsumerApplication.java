@@ -29,16 +29,22 @@ public class ConsumerApplication {
         if(args != null && args.length > 0) {
             sync = Boolean.valueOf(args[0]);
         }
+        boolean persistent = false;
+        if(args != null && args.length > 1) {
+            persistent = Boolean.valueOf(args[1]);
+        }
 
         if(sync == true) {
             //Example of a sync consumer with Spring JMS
-            SpringJmsConsumer consumer = (SpringJmsConsumer) context.getBean("springJmsConsumer");
+            SpringJmsConsumer consumer = (SpringJmsConsumer) context.getBean(persistent ? "persistentSpringJmsConsumer" : "springJmsConsumer");
             consumer.run();
             ((org.springframework.jms.connection.CachingConnectionFactory) context.getBean("connectionFactory")).resetConnection();
         } else {
             //Example of an async consumer with Spring JMS (autoStartup is normally set to true)
             AbstractJmsListeningContainer listenerContainer = (AbstractJmsListeningContainer) context.getBean("listenerContainer");
             listenerContainer.start();
+            ListenerAutoscaler autoscaler = (ListenerAutoscaler) context.getBean("listenerAutoscaler");
+            autoscaler.start();
         }
     }
 }
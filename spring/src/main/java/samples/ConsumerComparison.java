@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package samples;
+
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+
+import javax.jms.ConnectionFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast SpringJmsConsumer drains a queue with jmsTemplate.receive() per message, with and without consumer
+ * caching in the CachingConnectionFactory, compared to one persistent consumer draining batches with receiveNoWait.
+ * Each run first fills the template's default destination, as a queue, with a batched SpringJmsProducer.
+ *
+ * Usage: ConsumerComparison [numMessages] [connectionFactoryBean]
+ */
+public class ConsumerComparison {
+    private static final int[] BATCH_SIZES = {10, 100, 1000};
+
+    public static void main(String[] args) throws Exception {
+        int numMessages = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        String factoryBean = args.length > 1 ? args[1] : "connectionFactory";
+
+        AbstractApplicationContext context = new ClassPathXmlApplicationContext("applicationContext.xml");
+        context.registerShutdownHook();
+        ConnectionFactory targetConnectionFactory = context.getBean(factoryBean, ConnectionFactory.class);
+        if(targetConnectionFactory instanceof CachingConnectionFactory) {
+            targetConnectionFactory = ((CachingConnectionFactory) targetConnectionFactory).getTargetConnectionFactory();
+        }
+        String destinationName = context.getBean("jmsTemplate", JmsTemplate.class).getDefaultDestinationName();
+
+        System.out.println("Receiving " + numMessages + " messages from " + destinationName);
+        System.out.println("mode, cacheConsumers, batchSize, msgs/s");
+        //Untimed pass so the first measurement does not pay for class loading and JIT compilation
+        measure(targetConnectionFactory, destinationName, true, 0, numMessages);
+        report("template receive", false, 0, measure(targetConnectionFactory, destinationName, false, 0, numMessages));
+        report("template receive", true, 0, measure(targetConnectionFactory, destinationName, true, 0, numMessages));
+        for(int batchSize : BATCH_SIZES) {
+            report("persistent consumer", false, batchSize,
+                    measure(targetConnectionFactory, destinationName, false, batchSize, numMessages));
+        }
+        context.close();
+    }
+
+    private static long measure(ConnectionFactory targetConnectionFactory, String destinationName, boolean cacheConsumers,
+                                int batchSize, int numMessages) {
+        CachingConnectionFactory connectionFactory = new CachingConnectionFactory(targetConnectionFactory);
+        connectionFactory.setCacheConsumers(cacheConsumers);
+        try {
+            JmsTemplate jmsTemplate = new JmsTemplate(connectionFactory);
+            jmsTemplate.setDefaultDestinationName(destinationName);
+            jmsTemplate.setReceiveTimeout(1000);
+
+            SpringJmsProducer producer = new SpringJmsProducer();
+            producer.setJmsTemplate(jmsTemplate);
+            producer.setNumMessages(numMessages);
+            producer.setBatchSize(numMessages);
+            producer.setLogMessages(false);
+            producer.run();
+
+            SpringJmsConsumer consumer = new SpringJmsConsumer();
+            consumer.setJmsTemplate(jmsTemplate);
+            consumer.setNumMessages(numMessages);
+            consumer.setBatchSize(batchSize);
+            consumer.setLogMessages(false);
+            long startNanos = System.nanoTime();
+            consumer.run();
+            long elapsedNanos = System.nanoTime() - startNanos;
+            return (long) ((double) numMessages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+        } finally {
+            connectionFactory.destroy();
+        }
+    }
+
+    private static void report(String mode, boolean cacheConsumers, int batchSize, long rate) {
+        System.out.println(mode + ", " + cacheConsumers + ", " + batchSize + ", " + rate);
+    }
+}
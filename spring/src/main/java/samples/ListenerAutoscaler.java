@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package samples;
+
+import org.springframework.jms.core.BrowserCallback;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+import javax.jms.JMSException;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import java.util.Enumeration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resizes a DefaultMessageListenerContainer from the backlog, receive rate and processing time it observes.  The
+ * consumers needed to keep up are the receive rate times the processing time, divided by the target utilization,
+ * plus enough to work off the backlog within drainSeconds.  Scaling up happens at once and scaling down one consumer
+ * per interval, so a short lull does not tear down consumers a burst is about to need.  A topic container is held at
+ * one consumer, because every extra non-durable topic consumer receives its own copy of each message and so multiplies
+ * the processing instead of sharing it.
+ */
+public class ListenerAutoscaler {
+
+    private DefaultMessageListenerContainer listenerContainer;
+    private MeteredMessageListener meteredListener;
+    private JmsTemplate jmsTemplate;
+    private int minConsumers = 1;
+    private int maxConsumers = 10;
+    private int intervalSeconds = 5;
+    private double targetUtilization = 0.7;
+    private int drainSeconds = 30;
+    //Browsing a deep queue is expensive, so the backlog is only counted up to this many messages
+    private int backlogLimit = 10000;
+
+    private ScheduledExecutorService scheduler;
+    private long lastMessages;
+    private long lastProcessingNanos;
+    private long lastNanos;
+
+    public void setListenerContainer(DefaultMessageListenerContainer listenerContainer) {
+        this.listenerContainer = listenerContainer;
+    }
+
+    public void setMeteredListener(MeteredMessageListener meteredListener) {
+        this.meteredListener = meteredListener;
+    }
+
+    /**
+     * Used to browse the container's queue for the backlog.
+     */
+    public void setJmsTemplate(JmsTemplate jmsTemplate) {
+        this.jmsTemplate = jmsTemplate;
+    }
+
+    public void setMinConsumers(int minConsumers) {
+        this.minConsumers = minConsumers;
+    }
+
+    public void setMaxConsumers(int maxConsumers) {
+        this.maxConsumers = maxConsumers;
+    }
+
+    public void setIntervalSeconds(int intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    public void setTargetUtilization(double targetUtilization) {
+        this.targetUtilization = targetUtilization;
+    }
+
+    public void setDrainSeconds(int drainSeconds) {
+        this.drainSeconds = drainSeconds;
+    }
+
+    public void setBacklogLimit(int backlogLimit) {
+        this.backlogLimit = backlogLimit;
+    }
+
+    public void start() {
+        lastMessages = meteredListener.getMessages();
+        lastProcessingNanos = meteredListener.getProcessingNanos();
+        lastNanos = System.nanoTime();
+        if(listenerContainer.isPubSubDomain()) {
+            System.out.println("Autoscaler holding the topic container at 1 consumer, extra topic consumers would " +
+                    "each receive a copy of every message");
+            resize(1);
+            return;
+        }
+        resize(Math.max(minConsumers, Math.min(maxConsumers, listenerContainer.getConcurrentConsumers())));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "listener-autoscaler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evaluate();
+                } catch (RuntimeException ex) {
+                    //A failed browse must not cancel the schedule
+                    ex.printStackTrace();
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if(scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    void evaluate() {
+        long nowNanos = System.nanoTime();
+        long messages = meteredListener.getMessages();
+        long processingNanos = meteredListener.getProcessingNanos();
+        long intervalMessages = messages - lastMessages;
+        long intervalProcessingNanos = processingNanos - lastProcessingNanos;
+        long elapsedNanos = nowNanos - lastNanos;
+        lastMessages = messages;
+        lastProcessingNanos = processingNanos;
+        lastNanos = nowNanos;
+
+        int current = listenerContainer.getConcurrentConsumers();
+        long backlog = measureBacklog();
+        double rate = intervalMessages * 1e9 / elapsedNanos;
+        double processingSeconds = intervalMessages > 0 ? intervalProcessingNanos / 1e9 / intervalMessages : 0;
+        double utilization = (double) intervalProcessingNanos / elapsedNanos / current;
+
+        int needed;
+        String reason;
+        if(intervalMessages == 0) {
+            //Without a processing time to go on, a backlog nobody is working through just gets one more consumer
+            needed = backlog > 0 ? current + 1 : minConsumers;
+            reason = backlog > 0 ? "backlog with no deliveries" : "idle";
+        } else {
+            double keepUp = rate * processingSeconds / targetUtilization;
+            double drain = backlog > 0 ? backlog * processingSeconds / drainSeconds : 0;
+            needed = (int) Math.ceil(keepUp + drain);
+            reason = String.format("%.1f to keep up, %.1f to drain the backlog", keepUp, drain);
+        }
+        int target = Math.max(minConsumers, Math.min(maxConsumers, needed));
+        if(target < current) {
+            target = current - 1;
+        }
+
+        String decision = target > current ? "scaling up" : target < current ? "scaling down" : "holding";
+        System.out.println(String.format("Autoscaler %s from %d to %d consumers (%s): backlog = %s, rate = %.1f msgs/s, " +
+                        "processing = %.3f ms, utilization = %.0f%%, active consumers = %d", decision, current, target,
+                reason, backlog < 0 ? "unknown" : Long.toString(backlog), rate, processingSeconds * 1000,
+                utilization * 100, listenerContainer.getActiveConsumerCount()));
+        if(target != current) {
+            resize(target);
+        }
+    }
+
+    private void resize(int consumers) {
+        //Both bounds move together so the container's own idle based scaling does not fight these decisions
+        if(consumers > listenerContainer.getMaxConcurrentConsumers()) {
+            listenerContainer.setMaxConcurrentConsumers(consumers);
+            listenerContainer.setConcurrentConsumers(consumers);
+        } else {
+            listenerContainer.setConcurrentConsumers(consumers);
+            listenerContainer.setMaxConcurrentConsumers(consumers);
+        }
+    }
+
+    /**
+     * Counts the messages waiting on the container's queue, up to backlogLimit, or returns -1 without a template.
+     */
+    private long measureBacklog() {
+        if(jmsTemplate == null) {
+            return -1;
+        }
+        Long backlog = jmsTemplate.browse(listenerContainer.getDestinationName(), new BrowserCallback<Long>() {
+            @Override
+            public Long doInJms(Session session, QueueBrowser browser) throws JMSException {
+                long count = 0;
+                Enumeration<?> messages = browser.getEnumeration();
+                while(count < backlogLimit && messages.hasMoreElements()) {
+                    messages.nextElement();
+                    count++;
+                }
+                return count;
+            }
+        });
+        return backlog;
+    }
+}
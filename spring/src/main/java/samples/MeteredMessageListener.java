@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package samples;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps a listener to count the messages it handles and the time spent handling them, for the autoscaler to read.
+ */
+public class MeteredMessageListener implements MessageListener {
+
+    private MessageListener delegate;
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong processingNanos = new AtomicLong();
+
+    public void setDelegate(MessageListener delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        long startNanos = System.nanoTime();
+        try {
+            delegate.onMessage(message);
+        } finally {
+            processingNanos.addAndGet(System.nanoTime() - startNanos);
+            messages.incrementAndGet();
+        }
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getProcessingNanos() {
+        return processingNanos.get();
+    }
+}
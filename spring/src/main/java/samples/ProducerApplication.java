@@ -24,7 +24,13 @@ public class ProducerApplication {
         AbstractApplicationContext context = new ClassPathXmlApplicationContext("applicationContext.xml");
         context.registerShutdownHook();
 
-        SpringJmsProducer producer = (SpringJmsProducer) context.getBean("springJmsProducer");
+        boolean batched = false;
+        if(args != null && args.length > 0) {
+            batched = Boolean.valueOf(args[0]);
+        }
+
+        //The batched producer holds one transacted session and commits in batches instead of calling convertAndSend per message
+        SpringJmsProducer producer = (SpringJmsProducer) context.getBean(batched ? "batchedSpringJmsProducer" : "springJmsProducer");
         producer.run();
 
         ((org.springframework.jms.connection.CachingConnectionFactory) context.getBean("connectionFactory")).resetConnection();
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package samples;
+
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+
+import javax.jms.ConnectionFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast SpringJmsProducer sends with per-message convertAndSend calls compared to batched sends through a
+ * single session, across several CachingConnectionFactory session cache sizes.  Uses the provider behind the
+ * connectionFactory bean in applicationContext.xml unless another bean name is given.
+ *
+ * Usage: ProducerComparison [numMessages] [threads] [connectionFactoryBean]
+ */
+public class ProducerComparison {
+    private static final int[] SESSION_CACHE_SIZES = {1, 10, 100};
+    private static final int[] BATCH_SIZES = {10, 100, 1000};
+
+    public static void main(String[] args) throws Exception {
+        int numMessages = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        String factoryBean = args.length > 2 ? args[2] : "connectionFactory";
+
+        AbstractApplicationContext context = new ClassPathXmlApplicationContext("applicationContext.xml");
+        context.registerShutdownHook();
+        ConnectionFactory targetConnectionFactory = context.getBean(factoryBean, ConnectionFactory.class);
+        if(targetConnectionFactory instanceof CachingConnectionFactory) {
+            targetConnectionFactory = ((CachingConnectionFactory) targetConnectionFactory).getTargetConnectionFactory();
+        }
+        String destinationName = context.getBean("jmsTemplate", JmsTemplate.class).getDefaultDestinationName();
+
+        System.out.println("Sending " + numMessages + " messages per thread on " + threads + " threads to " + destinationName);
+        System.out.println("mode, sessionCacheSize, batchSize, transacted, msgs/s");
+        boolean warmedUp = false;
+        for(int sessionCacheSize : SESSION_CACHE_SIZES) {
+            CachingConnectionFactory connectionFactory = new CachingConnectionFactory(targetConnectionFactory);
+            connectionFactory.setSessionCacheSize(sessionCacheSize);
+            try {
+                if(!warmedUp) {
+                    //Untimed pass so the first measurement does not pay for class loading and JIT compilation
+                    measure(connectionFactory, destinationName, false, 0, numMessages, threads);
+                    warmedUp = true;
+                }
+                report("convertAndSend", sessionCacheSize, 0, false,
+                        measure(connectionFactory, destinationName, false, 0, numMessages, threads));
+                //Without a transaction the batch size only decides when nothing is committed, so one run covers it
+                report("batched", sessionCacheSize, numMessages, false,
+                        measure(connectionFactory, destinationName, false, numMessages, numMessages, threads));
+                for(int batchSize : BATCH_SIZES) {
+                    report("batched", sessionCacheSize, batchSize, true,
+                            measure(connectionFactory, destinationName, true, batchSize, numMessages, threads));
+                }
+            } finally {
+                connectionFactory.destroy();
+            }
+        }
+        context.close();
+    }
+
+    private static long measure(ConnectionFactory connectionFactory, String destinationName, boolean transacted,
+                                int batchSize, int numMessages, int threads) throws InterruptedException {
+        JmsTemplate jmsTemplate = new JmsTemplate(connectionFactory);
+        jmsTemplate.setDefaultDestinationName(destinationName);
+        jmsTemplate.setSessionTransacted(transacted);
+
+        List<Thread> senders = new ArrayList<Thread>();
+        for(int t = 0; t < threads; t++) {
+            final SpringJmsProducer producer = new SpringJmsProducer();
+            producer.setJmsTemplate(jmsTemplate);
+            producer.setNumMessages(numMessages);
+            producer.setBatchSize(batchSize);
+            producer.setLogMessages(false);
+            senders.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    producer.run();
+                }
+            }));
+        }
+        long startNanos = System.nanoTime();
+        for(Thread sender : senders) {
+            sender.start();
+        }
+        for(Thread sender : senders) {
+            sender.join();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return (long) ((double) numMessages * threads * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+    }
+
+    private static void report(String mode, int sessionCacheSize, int batchSize, boolean transacted, long rate) {
+        System.out.println(mode + ", " + sessionCacheSize + ", " + batchSize + ", " + transacted + ", " + rate);
+    }
+}
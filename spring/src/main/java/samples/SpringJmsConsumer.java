@@ -16,39 +16,110 @@
 package samples;
 
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.SessionCallback;
+import org.springframework.jms.support.JmsUtils;
 
+import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
+import javax.jms.Session;
 import javax.jms.TextMessage;
-import java.util.Date;
 
 public class SpringJmsConsumer implements MessageListener {
 
     private JmsTemplate jmsTemplate;
+    private int numMessages = 5;
+    private int batchSize = 0;
+    private boolean logMessages = true;
+
     public void setJmsTemplate(JmsTemplate jmsTemplate) {
         this.jmsTemplate = jmsTemplate;
     }
 
+    public void setNumMessages(int numMessages) {
+        this.numMessages = numMessages;
+    }
+
+    /**
+     * Keeps one consumer open for the whole run and drains up to batchSize messages at a time with receiveNoWait,
+     * acknowledging or committing once per batch.  Zero calls jmsTemplate.receive() for each message, which creates
+     * and closes a consumer every time unless the connection factory caches consumers.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setLogMessages(boolean logMessages) {
+        this.logMessages = logMessages;
+    }
+
     public void run() {
-        int numMessages = 0;
-        int totalMessages = 5;
-        while(numMessages < totalMessages) {
+        if(batchSize > 0) {
+            runPersistent();
+            return;
+        }
+        int receivedMessages = 0;
+        while(receivedMessages < numMessages) {
             //Receives from the default destination configured in JmsTemplate
             Message message = jmsTemplate.receive();
             if(message != null) {
                 onMessage(message);
-                numMessages++;
+                receivedMessages++;
             } else {
-                System.out.println("Waiting to receive " + totalMessages + " messages...");
+                System.out.println("Waiting to receive " + numMessages + " messages...");
             }
         }
     }
 
-
+    private void runPersistent() {
+        jmsTemplate.execute(new SessionCallback<Object>() {
+            @Override
+            public Object doInJms(Session session) throws JMSException {
+                Destination destination = jmsTemplate.getDestinationResolver().resolveDestinationName(session,
+                        jmsTemplate.getDefaultDestinationName(), jmsTemplate.isPubSubDomain());
+                MessageConsumer consumer = session.createConsumer(destination);
+                try {
+                    int receivedMessages = 0;
+                    while(receivedMessages < numMessages) {
+                        //Only the first message of a batch waits, the rest are whatever has already arrived
+                        long receiveTimeout = jmsTemplate.getReceiveTimeout();
+                        Message message = receiveTimeout == JmsTemplate.RECEIVE_TIMEOUT_NO_WAIT ?
+                                consumer.receiveNoWait() : consumer.receive(receiveTimeout);
+                        if(message == null) {
+                            System.out.println("Waiting to receive " + numMessages + " messages...");
+                            continue;
+                        }
+                        Message lastMessage = null;
+                        int inBatch = 0;
+                        while(message != null) {
+                            onMessage(message);
+                            lastMessage = message;
+                            receivedMessages++;
+                            if(++inBatch == batchSize || receivedMessages == numMessages) {
+                                break;
+                            }
+                            message = consumer.receiveNoWait();
+                        }
+                        if(session.getAcknowledgeMode() == Session.CLIENT_ACKNOWLEDGE) {
+                            lastMessage.acknowledge();
+                        }
+                        JmsUtils.commitIfNecessary(session);
+                    }
+                } finally {
+                    JmsUtils.closeMessageConsumer(consumer);
+                }
+                return null;
+            }
+        }, true);
+    }
 
     @Override
     public void onMessage(Message message) {
+        if(!logMessages) {
+            return;
+        }
         try {
             if (message instanceof TextMessage) {
                 TextMessage textMessage = (TextMessage) message;
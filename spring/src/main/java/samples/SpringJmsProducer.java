@@ -16,22 +16,77 @@
 package samples;
 
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.ProducerCallback;
+import org.springframework.jms.support.JmsUtils;
 
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
 import java.util.Date;
 
 public class SpringJmsProducer {
 
     private JmsTemplate jmsTemplate;
+    private int numMessages = 5;
+    private int batchSize = 0;
+    private boolean logMessages = true;
+
     public void setJmsTemplate(JmsTemplate jmsTemplate) {
         this.jmsTemplate = jmsTemplate;
     }
 
+    public void setNumMessages(int numMessages) {
+        this.numMessages = numMessages;
+    }
+
+    /**
+     * Sends through one session and producer, committing every batchSize messages when the template's sessions are
+     * transacted.  Zero sends each message with its own convertAndSend call.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setLogMessages(boolean logMessages) {
+        this.logMessages = logMessages;
+    }
+
     public void run() {
-        for(int i = 0; i < 5; i++) {
+        if(batchSize > 0) {
+            runBatched();
+            return;
+        }
+        for(int i = 0; i < numMessages; i++) {
             String messageText = "Message " + i + " at " + new Date();
-            System.out.println("Sending Text Message: " + messageText);
+            if(logMessages) {
+                System.out.println("Sending Text Message: " + messageText);
+            }
             //Sends to the default destination configured in JmsTemplate (other send methods also take a destination param)
             jmsTemplate.convertAndSend(messageText);
         }
     }
+
+    private void runBatched() {
+        //Every convertAndSend borrows a session and producer from the connection factory, the callback holds one
+        //of each for the whole run instead
+        jmsTemplate.execute(new ProducerCallback<Object>() {
+            @Override
+            public Object doInJms(Session session, MessageProducer producer) throws JMSException {
+                int inBatch = 0;
+                for(int i = 0; i < numMessages; i++) {
+                    String messageText = "Message " + i + " at " + new Date();
+                    if(logMessages) {
+                        System.out.println("Sending Text Message: " + messageText);
+                    }
+                    producer.send(jmsTemplate.getMessageConverter().toMessage(messageText, session));
+                    if(++inBatch == batchSize) {
+                        JmsUtils.commitIfNecessary(session);
+                        inBatch = 0;
+                    }
+                }
+                JmsUtils.commitIfNecessary(session);
+                return null;
+            }
+        });
+    }
 }
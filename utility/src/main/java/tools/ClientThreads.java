@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor that runs one simulated client per session.  Virtual threads are looked up reflectively so the
+ * tools still build for older Java versions and only need Java 21 when the mode is actually used.
+ */
+public final class ClientThreads {
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutorFactory();
+
+    private ClientThreads() {
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Returns a fixed pool of platform threads, or an executor that starts a new virtual thread per submitted client.
+     */
+    public static ExecutorService newExecutor(int numThreads, boolean virtual) throws Exception {
+        if (!virtual) {
+            return Executors.newFixedThreadPool(numThreads);
+        }
+        if (!isVirtualThreadSupported()) {
+            throw new Exception("Cannot use virtual threads on Java " + System.getProperty("java.version") +
+                    ", Java 21 or later is required");
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        } catch (InvocationTargetException e) {
+            throw new Exception("Cannot create virtual thread executor", e.getCause());
+        }
+    }
+
+    private static Method findVirtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a session's batch of sends or receives should be committed or acknowledged.  A batch closes when it
+ * reaches a message count, a byte count or a maximum linger time since its first message, whichever comes first.
+ * In adaptive mode the message count is tuned after every commit to maximize throughput while keeping commit latency
+ * under a target.  Each instance belongs to a single session thread.
+ */
+public class CommitBatcher {
+    static final int MAX_ADAPTIVE_BATCH_SIZE = 10000;
+
+    private final long maxBytes;
+    private final long lingerNanos;
+    private final long targetCommitNanos;
+    private final Histogram commitHistogram = Histograms.create();
+    private int maxMessages;
+    private int pendingMessages;
+    private long pendingBytes;
+    private long firstPendingNanos;
+    private long cycleStartNanos = System.nanoTime();
+    private double lastRate;
+    private int direction = 1;
+
+    /**
+     * @param maxMessages messages per batch, or the starting size in adaptive mode
+     * @param maxBytes body bytes per batch, or zero for no byte bound
+     * @param lingerMS longest a batch may stay open after its first message, or zero for no time bound
+     * @param targetCommitMS commit latency the adaptive mode keeps under, or zero for a fixed batch size
+     */
+    public CommitBatcher(int maxMessages, long maxBytes, long lingerMS, long targetCommitMS) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMS);
+        this.targetCommitNanos = TimeUnit.MILLISECONDS.toNanos(targetCommitMS);
+    }
+
+    /**
+     * Adds a message to the open batch and returns true when the batch should now be closed.
+     */
+    public boolean add(long messageBytes) {
+        long nowNanos = System.nanoTime();
+        if (pendingMessages == 0) {
+            firstPendingNanos = nowNanos;
+        }
+        pendingMessages++;
+        pendingBytes += messageBytes;
+        return pendingMessages >= maxMessages || (maxBytes > 0 && pendingBytes >= maxBytes) || isLingerExpired(nowNanos);
+    }
+
+    public boolean hasPending() {
+        return pendingMessages > 0;
+    }
+
+    /**
+     * Returns true when the open batch will have lingered too long by the given time.
+     */
+    public boolean isLingerExpired(long nowNanos) {
+        return lingerNanos > 0 && pendingMessages > 0 && nowNanos - firstPendingNanos >= lingerNanos;
+    }
+
+    /**
+     * Bounds a receive timeout so that waiting for the next message does not hold an open batch past its linger
+     * time.  A timeout of -1 means no timeout and is only returned when nothing bounds it.
+     */
+    public long boundReceiveTimeout(long receiveTimeoutMS) {
+        if (lingerNanos == 0 || pendingMessages == 0) {
+            return receiveTimeoutMS;
+        }
+        long remainingMS = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(firstPendingNanos + lingerNanos - System.nanoTime()));
+        return receiveTimeoutMS < 0 ? remainingMS : Math.min(receiveTimeoutMS, remainingMS);
+    }
+
+    /**
+     * Closes the open batch once it is committed and, in adaptive mode, picks the size of the next one.  Commits made
+     * during warmup still tune the size but are left out of the latency histogram.
+     */
+    public void onCommitted(long commitNanos, boolean measuring) {
+        if (measuring) {
+            Histograms.recordNanos(commitHistogram, commitNanos);
+        }
+        if (targetCommitNanos > 0) {
+            adapt(commitNanos);
+        }
+        pendingMessages = 0;
+        pendingBytes = 0;
+    }
+
+    private void adapt(long commitNanos) {
+        long nowNanos = System.nanoTime();
+        long cycleNanos = nowNanos - cycleStartNanos;
+        cycleStartNanos = nowNanos;
+        if (commitNanos > targetCommitNanos) {
+            //Over the latency target so back off hard and probe upwards again from there
+            maxMessages = Math.max(1, maxMessages / 2);
+            direction = 1;
+            lastRate = 0;
+            return;
+        }
+        double rate = cycleNanos > 0 ? pendingMessages * 1000000000.0 / cycleNanos : 0;
+        if (rate < lastRate) {
+            //The last step made things worse so climb the other way
+            direction = -direction;
+        }
+        lastRate = rate;
+        int step = Math.max(1, maxMessages / 4);
+        maxMessages = Math.min(MAX_ADAPTIVE_BATCH_SIZE, Math.max(1, maxMessages + direction * step));
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public Histogram getCommitHistogram() {
+        return commitHistogram;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import io.airlift.compress.Compressor;
+import io.airlift.compress.Decompressor;
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.lz4.Lz4Compressor;
+import io.airlift.compress.lz4.Lz4Decompressor;
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses message bodies with one of the codecs named in {@link #NAMES}.  Deflate comes with the
+ * JDK and LZ4 and zstd are the pure Java aircompressor implementations, so no native library has to be installed on
+ * the client hosts.  An instance keeps reusable state and belongs to a single thread.
+ */
+public abstract class CompressionCodec {
+    public static final String[] NAMES = {"deflate", "lz4", "zstd"};
+
+    private final String name;
+
+    protected CompressionCodec(String name) {
+        this.name = name;
+    }
+
+    public static boolean isValid(String name) {
+        for (String validName : NAMES) {
+            if (validName.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static CompressionCodec create(String name) {
+        if (name.equalsIgnoreCase("deflate")) {
+            return new DeflateCodec();
+        } else if (name.equalsIgnoreCase("lz4")) {
+            return new AirCodec("lz4", new Lz4Compressor(), new Lz4Decompressor());
+        } else if (name.equalsIgnoreCase("zstd")) {
+            return new AirCodec("zstd", new ZstdCompressor(), new ZstdDecompressor());
+        }
+        throw new IllegalArgumentException("Unknown compression codec " + name);
+    }
+
+    /**
+     * The name tagged on compressed messages so the consumer can pick the same codec.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The largest output {@link #compress} can produce for an input of the given length.
+     */
+    public abstract int maxCompressedLength(int length);
+
+    /**
+     * Compresses the first length bytes of input into output and returns the compressed length.
+     */
+    public abstract int compress(byte[] input, int length, byte[] output);
+
+    /**
+     * Decompresses the first length bytes of input into output, failing unless exactly uncompressedLength bytes come
+     * out.
+     */
+    public abstract void decompress(byte[] input, int length, byte[] output, int uncompressedLength) throws IOException;
+
+    private static class DeflateCodec extends CompressionCodec {
+        private final Deflater deflater = new Deflater();
+        private final Inflater inflater = new Inflater();
+
+        DeflateCodec() {
+            super("deflate");
+        }
+
+        @Override
+        public int maxCompressedLength(int length) {
+            //zlib's compressBound, which covers incompressible input written as stored blocks
+            return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+        }
+
+        @Override
+        public int compress(byte[] input, int length, byte[] output) {
+            deflater.reset();
+            deflater.setInput(input, 0, length);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                compressedLength += deflater.deflate(output, compressedLength, output.length - compressedLength);
+            }
+            return compressedLength;
+        }
+
+        @Override
+        public void decompress(byte[] input, int length, byte[] output, int uncompressedLength) throws IOException {
+            inflater.reset();
+            inflater.setInput(input, 0, length);
+            try {
+                int inflatedLength = inflater.inflate(output, 0, uncompressedLength);
+                if (inflatedLength != uncompressedLength || !inflater.finished()) {
+                    throw new IOException("Inflated " + inflatedLength + " bytes, expected " + uncompressedLength);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Malformed deflate body: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class AirCodec extends CompressionCodec {
+        private final Compressor compressor;
+        private final Decompressor decompressor;
+
+        AirCodec(String name, Compressor compressor, Decompressor decompressor) {
+            super(name);
+            this.compressor = compressor;
+            this.decompressor = decompressor;
+        }
+
+        @Override
+        public int maxCompressedLength(int length) {
+            return compressor.maxCompressedLength(length);
+        }
+
+        @Override
+        public int compress(byte[] input, int length, byte[] output) {
+            return compressor.compress(input, 0, length, output, 0, output.length);
+        }
+
+        @Override
+        public void decompress(byte[] input, int length, byte[] output, int uncompressedLength) throws IOException {
+            try {
+                int decompressedLength = decompressor.decompress(input, 0, length, output, 0, uncompressedLength);
+                if (decompressedLength != uncompressedLength) {
+                    throw new IOException("Decompressed " + decompressedLength + " bytes, expected " + uncompressedLength);
+                }
+            } catch (MalformedInputException e) {
+                throw new IOException("Malformed " + getName() + " body: " + e.getMessage(), e);
+            }
+        }
+    }
+}
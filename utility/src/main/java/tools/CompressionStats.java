@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body bytes before and after compression and the time the codec took, kept by each session thread and merged into
+ * one instance for the summary.  Since the counted bytes exclude headers and properties, the wire rate it reports is
+ * that of the bodies alone.
+ */
+public class CompressionStats {
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private long messages;
+    private long uncompressedBytes;
+    private long compressedBytes;
+    private long codecNanos;
+
+    /**
+     * Counts one body.  Only called by the owning thread, except through {@link #add}.
+     */
+    public void record(long uncompressedLength, long compressedLength, long nanos) {
+        messages++;
+        uncompressedBytes += uncompressedLength;
+        compressedBytes += compressedLength;
+        codecNanos += nanos;
+    }
+
+    /**
+     * Drops everything counted so far, at the end of warmup.
+     */
+    public void reset() {
+        messages = 0;
+        uncompressedBytes = 0;
+        compressedBytes = 0;
+        codecNanos = 0;
+    }
+
+    public synchronized long getMessages() {
+        return messages;
+    }
+
+    public synchronized void add(CompressionStats other) {
+        messages += other.messages;
+        uncompressedBytes += other.uncompressedBytes;
+        compressedBytes += other.compressedBytes;
+        codecNanos += other.codecNanos;
+    }
+
+    /**
+     * Logs the compression ratio, the codec time per uncompressed MB and how much payload each MB of compressed body
+     * carried over the run.
+     *
+     * @param verb Compressed or Decompressed
+     */
+    public synchronized void log(Logger logger, String verb, long elapsedNanos) {
+        if (messages == 0) {
+            logger.info("No message bodies were {}", verb.toLowerCase());
+            return;
+        }
+        double uncompressedMB = uncompressedBytes / BYTES_PER_MB;
+        double compressedMB = compressedBytes / BYTES_PER_MB;
+        double ratio = compressedBytes > 0 ? (double) uncompressedBytes / compressedBytes : 0;
+        double codecMillis = codecNanos / 1000000.0;
+        double elapsedSeconds = elapsedNanos / 1000000000.0;
+        logger.info("{} {} bodies, {} MB uncompressed and {} MB compressed (ratio {}) in {} ms, {} ms per uncompressed MB",
+                new Object[] {verb, messages, format(uncompressedMB), format(compressedMB), format(ratio),
+                        TimeUnit.NANOSECONDS.toMillis(codecNanos),
+                        format(uncompressedMB > 0 ? codecMillis / uncompressedMB : 0)});
+        if (elapsedSeconds > 0) {
+            logger.info("Bodies carried {} MB/s of payload in {} MB/s of compressed data",
+                    format(uncompressedMB / elapsedSeconds), format(compressedMB / elapsedSeconds));
+        }
+    }
+
+    private static String format(double value) {
+        return String.format("%.2f", value);
+    }
+}
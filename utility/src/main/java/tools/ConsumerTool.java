@@ -15,6 +15,8 @@
  */
 package tools;
 
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,14 +25,22 @@ import javax.jms.*;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ConsumerTool implements Runnable {
     static Logger LOGGER = LoggerFactory.getLogger(ConsumerTool.class);
+    private static final int MULTI_CONSUMER_POLL_MS = 10;
+    //Above this many sessions the summaries show per-session distributions instead of one line per session
+    private static final int SESSION_LINE_LIMIT = 64;
 
     private int acknowledgeMode = Session.AUTO_ACKNOWLEDGE; //a
     private boolean useQueueBrowser = false; //b
@@ -50,27 +60,147 @@ public class ConsumerTool implements Runnable {
     private boolean transacted = false; //t
     private boolean useAsyncListener = false; //y
     private int batchSize = 1; //z
+    private long batchBytes = 0; //--batch-bytes
+    private long batchLingerMS = 0; //--batch-linger
+    private long batchTargetCommitMS = 0; //--batch-target-commit
+    private int reportIntervalSeconds = 0; //--report-interval
+    private int sessionsPerConnection = 1; //--sessions-per-connection
+    private int consumersPerSession = 1; //--consumers-per-session
+    private int logEvery = 0; //--log-every
+    private int durationSeconds = 0; //--duration
+    private int warmupSeconds = 0; //--warmup
+    private long totalMessages = 0; //--total-messages
+    private boolean virtualThreads = false; //--virtual-threads
+    private boolean compositeDestination = false; //--composite-destination
+    private boolean browseSnapshot = false; //--browse-snapshot
+    private String browseExportPath = null; //--browse-export
+    private String browseExportMode = "buffered"; //--browse-export-mode
+    private String recordPath = null; //--record
+    private int recordSegmentMB = 256; //--record-segment-size
+    private String recordMode = "buffered"; //--record-mode
+    private boolean trackGroups = false; //--track-groups
+    private boolean verifySequences = false; //--verify-sequences
+    private int processingThreads = 0; //--processing-threads
+    private int processingQueueSize = 1000; //--processing-queue-size
+    private String processingStages = null; //--processing-stages
+
+    private final LatencyTracker latencyTracker = new LatencyTracker(LOGGER, "end-to-end latency");
+    private final ThroughputReporter throughputReporter = new ThroughputReporter(LOGGER, "received");
+    private final ThreadStates threadStates = new ThreadStates();
+    private final ToolMetrics metrics = new ToolMetrics(throughputReporter, latencyTracker, threadStates);
+    private final Histogram mergedCommitHistogram = Histograms.create();
+    private final CompressionStats mergedDecompressionStats = new CompressionStats();
+
+    private List<String> destinationNames;
+    private DestinationTracker destinationTracker;
 
     private Context context;
     private ConnectionFactory connectionFactory;
+    private SessionTopology topology;
+    private RunControl runControl;
+    private SegmentedLogWriter recordWriter;
+    private GroupTracker groupTracker;
+    private SequenceTracker sequenceTracker;
+    private StageTimings stageTimings;
+    private boolean runUntilStopped;
+    private CountDownLatch subscribed;
 
     public static void main(String[] args) throws Exception {
         LOGGER.info("Starting ConsumerTool");
         ConsumerTool consumerTool = new ConsumerTool();
-        consumerTool.parseCommandLine(args);
-        consumerTool.logInternalState();
-        consumerTool.validateInternalState();
-        consumerTool.setupContextAndConnectionFactory();
-
-        if(consumerTool.numThreads > 1) {
-            ExecutorService executor = Executors.newFixedThreadPool(consumerTool.numThreads);
-            for(int t = 0; t < consumerTool.numThreads; t++) {
-                executor.submit(consumerTool);
-            }
-            executor.shutdown();
-            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
-        } else {
-            consumerTool.run();
+        consumerTool.configure(args);
+        consumerTool.execute();
+    }
+
+    /**
+     * Parses and validates the arguments and opens the connections, without starting the run.
+     */
+    public void configure(String[] args) throws Exception {
+        parseCommandLine(args);
+        logInternalState();
+        validateInternalState();
+        metrics.register("ConsumerTool");
+        boolean configured = false;
+        try {
+            setupContextAndConnectionFactory();
+            setupDestinations();
+            setupConnections();
+            setupRunControl();
+            subscribed = new CountDownLatch(getNumSessionThreads());
+            setupRecording();
+            configured = true;
+        } finally {
+            //No run will follow to unregister the MXBean, so a failed setup would leave it behind
+            if(!configured) {
+                metrics.unregister();
+            }
+        }
+        if(trackGroups) {
+            groupTracker = new GroupTracker();
+        }
+        if(verifySequences) {
+            sequenceTracker = new SequenceTracker();
+        }
+        if(processingStages != null) {
+            stageTimings = new StageTimings(ProcessingPipeline.parseSpecs(processingStages));
+        }
+    }
+
+    /**
+     * Runs every session to completion and logs the results.
+     */
+    public void execute() throws Exception {
+        latencyTracker.setSummarizeEntries(isSummarizingSessions());
+        throughputReporter.setSummarizeSessions(isSummarizingSessions());
+        int numSessionThreads = getNumSessionThreads();
+        try {
+            latencyTracker.start(reportIntervalSeconds);
+            runControl.start();
+            throughputReporter.start(reportIntervalSeconds);
+
+            if(numSessionThreads > 1 || virtualThreads) {
+                ExecutorService executor = ClientThreads.newExecutor(numSessionThreads, virtualThreads);
+                for(int t = 0; t < numSessionThreads; t++) {
+                    executor.submit(this);
+                }
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } else {
+                run();
+            }
+            topology.close();
+            if(numSessionThreads > 1 && !isSummarizingSessions()) {
+                topology.logConnectionTotals(LOGGER, "received", runControl.getMeasuredNanos());
+            }
+            throughputReporter.setStartNanos(runControl.getMeasurementStartNanos());
+            throughputReporter.stop();
+            latencyTracker.stop();
+        } finally {
+            metrics.unregister();
+        }
+        if(destinationTracker != null) {
+            destinationTracker.log(LOGGER, runControl.getMeasuredNanos());
+        }
+        if(groupTracker != null) {
+            groupTracker.log(LOGGER, runControl.getMeasuredNanos());
+        }
+        if(sequenceTracker != null) {
+            sequenceTracker.log(LOGGER);
+        }
+        if(stageTimings != null) {
+            stageTimings.log(LOGGER, runControl.getMeasuredNanos());
+        }
+        if(mergedDecompressionStats.getMessages() > 0) {
+            mergedDecompressionStats.log(LOGGER, "Decompressed", runControl.getMeasuredNanos());
+        }
+        if(recordWriter != null) {
+            recordWriter.close();
+            LOGGER.info("Recorded {} messages ({} bytes) in {} segments under {}", new Object[] {
+                    recordWriter.getRecordsWritten(), recordWriter.getBytesWritten(),
+                    recordWriter.getSegmentCount(), recordPath});
+        }
+        if(isBatching()) {
+            Histograms.log(LOGGER, "Total commit latency", mergedCommitHistogram);
         }
     }
 
@@ -80,100 +210,314 @@ public class ConsumerTool implements Runnable {
 
     }
 
+    public void setupRunControl() {
+        runControl = new RunControl(runUntilStopped ? Long.MAX_VALUE : numMessages, totalMessages, warmupSeconds,
+                durationSeconds);
+    }
+
+    /**
+     * Ignores the -m message limit so that the run only ends on a duration, a total budget or {@link #stop()}.  Must
+     * be called before {@link #configure}.
+     */
+    public void setRunUntilStopped(boolean runUntilStopped) {
+        this.runUntilStopped = runUntilStopped;
+    }
+
+    /**
+     * Waits until every session has created its consumers, so that nothing sent afterwards is missed by a topic
+     * subscriber that was not there yet.
+     */
+    public boolean awaitSubscribed(long timeout, TimeUnit unit) throws InterruptedException {
+        return subscribed.await(timeout, unit);
+    }
+
+    /**
+     * Ends a running {@link #execute()} early.  Sessions blocked in a receive notice within their receive timeout.
+     */
+    public void stop() {
+        runControl.stop();
+    }
+
+    public ThroughputReporter getThroughputReporter() {
+        return throughputReporter;
+    }
+
+    public LatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * The group checks of a --track-groups run, or null without it.
+     */
+    public GroupTracker getGroupTracker() {
+        return groupTracker;
+    }
+
+    /**
+     * The sequence checks of a --verify-sequences run, or null without it.
+     */
+    public SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+
+    public void setupDestinations() {
+        destinationNames = DestinationNames.expand(destinationName);
+        if (compositeDestination && destinationNames.size() > 1) {
+            destinationNames = Collections.singletonList(DestinationNames.composite(destinationNames));
+        }
+        if (destinationNames.size() > 1 || compositeDestination) {
+            destinationTracker = new DestinationTracker("received");
+        }
+    }
+
+    public void setupConnections() throws JMSException {
+        topology = SessionTopology.open(connectionFactory, numThreads, sessionsPerConnection, clientId, true);
+    }
+
+    private Destination createDestination(Session session, String name) throws JMSException, NamingException {
+        Destination destination = null;
+        if (jndiLookupDestinations) {
+            destination = (Destination) context.lookup(name);
+        } else {
+            if (useQueueDestinations) {
+                if (useTemporaryDestinations) {
+                    destination = session.createTemporaryQueue();
+                } else {
+                    destination = session.createQueue(name);
+                }
+            } else {
+                if (useTemporaryDestinations) {
+                    destination = session.createTemporaryTopic();
+                } else {
+                    destination = session.createTopic(name);
+                }
+            }
+        }
+        return destination;
+    }
+
+    public int getNumSessionThreads() {
+        return numThreads * sessionsPerConnection;
+    }
+
+    private boolean isSummarizingSessions() {
+        return getNumSessionThreads() > SESSION_LINE_LIMIT;
+    }
+
     @Override
     public void run() {
-        Connection connection = null;
+        SessionTopology.Slot slot = topology.nextSlot();
+        ThreadStates.Entry threadState = threadStates.register(slot.toString());
         Session session = null;
+        boolean subscribeSignalled = false;
         try {
-            connection = connectionFactory.createConnection();
-            if (clientId != null) {
-                connection.setClientID(clientId);
-            }
-            connection.start();
-            session = connection.createSession(transacted, acknowledgeMode);
-            Destination destination = null;
-            if (jndiLookupDestinations) {
-                destination = (Destination) context.lookup(destinationName);
-            } else {
-                if (useQueueDestinations) {
-                    if (useTemporaryDestinations) {
-                        destination = session.createTemporaryQueue();
-                    } else {
-                        destination = session.createQueue(destinationName);
-                    }
-                } else {
-                    if (useTemporaryDestinations) {
-                        destination = session.createTemporaryTopic();
-                    } else {
-                        destination = session.createTopic(destinationName);
-                    }
-                }
+            session = slot.getConnection().createSession(transacted, acknowledgeMode);
+            Destination[] destinations = new Destination[destinationNames.size()];
+            for (int d = 0; d < destinations.length; d++) {
+                destinations[d] = createDestination(session, destinationNames.get(d));
             }
 
             if(useQueueBrowser) {
-                runQueueBrowser(session, (Queue) destination);
+                threadState.set(ThreadStates.State.BROWSING);
+                subscribed.countDown();
+                subscribeSignalled = true;
+                SessionStats browserStats = new SessionStats(null, throughputReporter.register(slot.toString()));
+                runQueueBrowser(session, (Queue) destinations[0], browserStats);
+                addSessionTotals(browserStats);
             } else {
-                MessageConsumer consumer = null;
-                if (useQueueDestinations) { //Queues
-                    if (selector != null) {
-                        consumer = session.createConsumer(destination, selector);
-                    } else {
-                        consumer = session.createConsumer(destination);
+                String sessionName = slot.toString();
+                final SessionStats stats;
+                final ProcessingPool processingPool;
+                final SessionStats[] workerStats;
+                if (processingThreads > 0) {
+                    //Each worker gets its own stats since the counters only support a single writing thread
+                    stats = null;
+                    processingPool = new ProcessingPool(sessionName, processingThreads, processingQueueSize);
+                    workerStats = new SessionStats[processingThreads];
+                    for (int w = 0; w < processingThreads; w++) {
+                        String workerName = sessionName + "/worker-" + w;
+                        workerStats[w] = new SessionStats(latencyTracker.register(workerName), throughputReporter.register(workerName),
+                                null, newRecordAppender(), null, newPipeline());
                     }
-                } else { //Queues
-                    if (durable) { //Durable Subscribers
-                        if (selector != null) {
-                            consumer = session.createDurableSubscriber((Topic) destination, subscriptionName, selector, false);
-                        } else {
-                            consumer = session.createDurableSubscriber((Topic) destination, subscriptionName);
-                        }
-                    } else { //Non-Durable Subscribers
+                } else {
+                    stats = new SessionStats(latencyTracker.register(sessionName), throughputReporter.register(sessionName),
+                            newCommitBatcher(), newRecordAppender(), threadState, newPipeline());
+                    processingPool = null;
+                    workerStats = null;
+                }
+                //Each destination gets its own consumers and they are all driven by this session
+                threadState.set(ThreadStates.State.SUBSCRIBING);
+                MessageConsumer[] consumers = new MessageConsumer[destinations.length * consumersPerSession];
+                for (int c = 0; c < consumers.length; c++) {
+                    Destination destination = destinations[c / consumersPerSession];
+                    String destinationSubscriptionName = destinations.length > 1 ? subscriptionName + "-" + (c / consumersPerSession) : subscriptionName;
+                    MessageConsumer consumer = null;
+                    if (useQueueDestinations) { //Queues
                         if (selector != null) {
                             consumer = session.createConsumer(destination, selector);
                         } else {
                             consumer = session.createConsumer(destination);
                         }
+                    } else { //Queues
+                        if (durable) { //Durable Subscribers
+                            if (selector != null) {
+                                consumer = session.createDurableSubscriber((Topic) destination, destinationSubscriptionName, selector, false);
+                            } else {
+                                consumer = session.createDurableSubscriber((Topic) destination, destinationSubscriptionName);
+                            }
+                        } else { //Non-Durable Subscribers
+                            if (selector != null) {
+                                consumer = session.createConsumer(destination, selector);
+                            } else {
+                                consumer = session.createConsumer(destination);
+                            }
+                        }
                     }
+                    consumers[c] = consumer;
                 }
-
+                final String[] subscriptions = subscriptionNames(sessionName, destinations);
+                subscribed.countDown();
+                subscribeSignalled = true;
+
+                final long[] consumerReceivedCounts = new long[consumers.length];
+                final AtomicReference<Message> lastAsyncMessage = new AtomicReference<Message>();
+                long perSessionReceivedMessages = 0;
+                long runStartNanos = System.nanoTime();
                 if (useAsyncListener) {
                     final Session consumerSession = session;
 
-                    final AtomicInteger perConsumerReceivedMessages = new AtomicInteger(0);
-                    consumer.setMessageListener(new MessageListener() {
-
-                        @Override
-                        public void onMessage(Message message) {
-                            perConsumerReceivedMessages.incrementAndGet();
-                            handleMessage(consumerSession, message, perConsumerReceivedMessages.get());
-                        }
-                    });
-                    while (perConsumerReceivedMessages.get() < numMessages) {
-                        Thread.sleep(100);
+                    final AtomicLong asyncReceivedMessages = new AtomicLong(0);
+                    final CountDownLatch sessionDone = runControl.newSessionSignal();
+                    //Set before any listener can commit, since a commit restores whatever state it found
+                    threadState.set(ThreadStates.State.LISTENING);
+                    for (int c = 0; c < consumers.length; c++) {
+                        final int consumerIndex = c;
+                        consumers[c].setMessageListener(new MessageListener() {
+
+                            @Override
+                            public void onMessage(final Message message) {
+                                //The session delivers to its listeners one at a time so the plain array is safe here
+                                if (!runControl.isWarmingUp()) {
+                                    consumerReceivedCounts[consumerIndex]++;
+                                }
+                                runControl.onConsumed();
+                                final long received = asyncReceivedMessages.incrementAndGet();
+                                if (processingPool != null) {
+                                    try {
+                                        final int worker = processingPool.chooseWorker(message.getStringProperty("JMSXGroupID"));
+                                        processingPool.submit(worker, new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                handleMessage(consumerSession, message, received, workerStats[worker],
+                                                        subscriptions[consumerIndex]);
+                                            }
+                                        });
+                                    } catch (JMSException e) {
+                                        LOGGER.error("JMSException handing off message: " + e.getMessage(), e);
+                                    }
+                                } else {
+                                    handleMessage(consumerSession, message, received, stats, subscriptions[consumerIndex]);
+                                }
+                                lastAsyncMessage.set(message);
+                                if (runControl.isDone(received)) {
+                                    sessionDone.countDown();
+                                }
+                            }
+                        });
                     }
+                    runControl.awaitDone(sessionDone);
+                    perSessionReceivedMessages = asyncReceivedMessages.get();
                 } else {
-                    int perConsumerReceivedMessages = 0;
-                    while (perConsumerReceivedMessages < numMessages) {
+                    int c = 0;
+                    int emptyPolls = 0;
+                    Message lastMessage = null;
+                    CommitBatcher batcher = stats.getBatcher();
+                    while (!runControl.isDone(perSessionReceivedMessages)) {
 
                         Message message = null;
-                        if (receiveTimeoutMS > -1) {
-                            message = consumer.receive(receiveTimeoutMS);
+                        //Consumers sharing this thread are polled in turn instead of blocking on one of them, and
+                        //only wait once a full pass found nothing so idle destinations do not slow the busy ones
+                        long timeoutMS = runControl.boundReceiveTimeout(consumers.length > 1 ? MULTI_CONSUMER_POLL_MS : receiveTimeoutMS);
+                        if (batcher != null) {
+                            timeoutMS = batcher.boundReceiveTimeout(timeoutMS);
+                        }
+                        threadState.set(ThreadStates.State.RECEIVING);
+                        if (consumers.length > 1 && emptyPolls < consumers.length) {
+                            message = consumers[c].receiveNoWait();
+                        } else if (timeoutMS > -1) {
+                            message = consumers[c].receive(timeoutMS);
                         } else {
-                            message = consumer.receive();
+                            message = consumers[c].receive();
                         }
 
                         if (message != null) {
-                            perConsumerReceivedMessages++;
-                            handleMessage(session, message, perConsumerReceivedMessages);
+                            threadState.set(ThreadStates.State.PROCESSING);
+                            emptyPolls = 0;
+                            if (!runControl.isWarmingUp()) {
+                                consumerReceivedCounts[c]++;
+                            }
+                            runControl.onConsumed();
+                            perSessionReceivedMessages++;
+                            handleMessage(session, message, perSessionReceivedMessages, stats, subscriptions[c]);
+                            lastMessage = message;
+                        } else {
+                            emptyPolls++;
+                            if (batcher != null && batcher.isLingerExpired(System.nanoTime())) {
+                                closeBatch(session, lastMessage, stats);
+                            }
+                        }
+                        c = (c + 1) % consumers.length;
+                    }
+                    closeFinalBatch(session, lastMessage, stats);
+                }
+                for (MessageConsumer consumer : consumers) {
+                    consumer.close();
+                }
+                if (stats != null && stats.getBatcher() != null) {
+                    if (useAsyncListener) {
+                        //Closing the consumers waited for any listener in progress so the session is ours again
+                        closeFinalBatch(session, lastAsyncMessage.get(), stats);
+                    }
+                    synchronized (mergedCommitHistogram) {
+                        mergedCommitHistogram.add(stats.getBatcher().getCommitHistogram());
+                    }
+                }
+                long measuredMessages;
+                if (processingPool != null) {
+                    processingPool.shutdownAndAwait();
+                    measuredMessages = 0;
+                    for (SessionStats worker : workerStats) {
+                        measuredMessages += worker.getCounters().getMessages();
+                        addSessionTotals(worker);
+                    }
+                } else {
+                    measuredMessages = stats.getCounters().getMessages();
+                    addSessionTotals(stats);
+                }
+                long runNanos = System.nanoTime() - Math.max(runStartNanos, runControl.getMeasurementStartNanos());
+
+                if (!isSummarizingSessions()) {
+                    LOGGER.info("{} received {} messages in {} ms ({} msgs/s)", new Object[] {sessionName,
+                            measuredMessages, TimeUnit.NANOSECONDS.toMillis(runNanos),
+                            Rates.perSecond(measuredMessages, runNanos)});
+                    if (consumers.length > 1 && consumers.length <= SESSION_LINE_LIMIT) {
+                        for (int c = 0; c < consumers.length; c++) {
+                            LOGGER.info("{}/consumer-{} received {} messages ({} msgs/s)", new Object[] {sessionName, c,
+                                    consumerReceivedCounts[c], Rates.perSecond(consumerReceivedCounts[c], runNanos)});
                         }
                     }
                 }
-                consumer.close();
+                topology.addMessages(slot, measuredMessages);
             }
 
         } catch (Exception ex) {
             LOGGER.error("ConsumerTool hit exception: " + ex.getMessage(), ex);
         } finally {
+            threadState.set(ThreadStates.State.DONE);
+            if (!subscribeSignalled) {
+                //A session that failed before subscribing must not hold up whoever waits for the subscriptions
+                subscribed.countDown();
+            }
             if (session != null) {
                 try {
                     session.close();
@@ -181,17 +525,10 @@ public class ConsumerTool implements Runnable {
                     LOGGER.error("JMSException closing session", e);
                 }
             }
-            if (connection != null) {
-                try {
-                    connection.close();
-                } catch (JMSException e) {
-                    LOGGER.error("JMSException closing connection", e);
-                }
-            }
         }
     }
 
-    public void runQueueBrowser(Session session, Queue queue) throws JMSException, InterruptedException {
+    public void runQueueBrowser(Session session, Queue queue, SessionStats stats) throws JMSException, InterruptedException, IOException {
         QueueBrowser browser = null;
         if (selector != null) {
             browser = session.createBrowser(queue, selector);
@@ -199,33 +536,133 @@ public class ConsumerTool implements Runnable {
             browser = session.createBrowser(queue);
         }
 
-        Enumeration messages = browser.getEnumeration();
-        int perConsumerReceivedMessages = 0;
-        while (perConsumerReceivedMessages < numMessages) {
-            if(messages != null) {
-                while (messages.hasMoreElements()){
+        MessageIdSet seenMessageIds = new MessageIdSet();
+        Histogram ageHistogram = Histograms.create();
+        RecordFileWriter exportWriter = null;
+        MessageCodec codec = null;
+        if (browseExportPath != null) {
+            exportWriter = RecordFileWriter.open(new File(browseExportPath), browseExportMode.equalsIgnoreCase("mmap"));
+            codec = new MessageCodec();
+        }
+        long browsedMessages = 0;
+        int passes = 0;
+        try {
+            while (!runControl.isDone(browsedMessages)) {
+                passes++;
+                int depth = 0;
+                int newMessages = 0;
+                long passStartMillis = System.currentTimeMillis();
+                //The enumeration streams the queue so each pass only holds the prefetched messages in memory
+                Enumeration messages = browser.getEnumeration();
+                //A snapshot covers the whole queue so only the duration can cut it short
+                while (messages.hasMoreElements()
+                        && !(browseSnapshot ? runControl.isExpired() : runControl.isDone(browsedMessages))) {
                     Message message = (Message) messages.nextElement();
-                    if (message != null) {
-                        perConsumerReceivedMessages++;
-                        handleMessage(session, message, perConsumerReceivedMessages);
+                    if (message == null) {
+                        continue;
+                    }
+                    depth++;
+                    String messageId = message.getJMSMessageID();
+                    if (messageId != null && !seenMessageIds.add(messageId)) {
+                        //Seen on an earlier pass so it is not counted or exported again
+                        continue;
+                    }
+                    newMessages++;
+                    browsedMessages++;
+                    if (message.getJMSTimestamp() > 0) {
+                        ageHistogram.recordValue(Math.max(0L, passStartMillis - message.getJMSTimestamp()));
                     }
+                    handleMessage(session, message, browsedMessages, stats);
+                    if (exportWriter != null) {
+                        int recordLength = codec.encode(message, WallClock.currentTimeMicros());
+                        exportWriter.write(codec.getRecord(), recordLength);
+                    }
+                }
+                LOGGER.info("Browse pass {} saw a depth of {} messages, {} of them new", new Object[] {passes, depth,
+                        newMessages});
+                if (browseSnapshot) {
+                    break;
                 }
+                Thread.sleep(receiveTimeoutMS);
+            }
+        } finally {
+            browser.close();
+            if (exportWriter != null) {
+                exportWriter.close();
+                LOGGER.info("Exported {} messages ({} bytes) to {}", new Object[] {exportWriter.getRecordsWritten(),
+                        exportWriter.getBytesWritten(), browseExportPath});
+            }
+        }
+        LOGGER.info("Browsed {} distinct messages in {} passes", browsedMessages, passes);
+        Histograms.log(LOGGER, "Browsed message age", "ms", ageHistogram);
+    }
+
+    /**
+     * Names the subscription each of a session's consumers reads, or null for a queue consumer.  Every topic
+     * subscriber gets its own copy of each message, so sequences are checked per subscription instead of across the
+     * run.  The n-th consumer on each of the session's destinations together see everything sent once, so they
+     * share a name.
+     */
+    private String[] subscriptionNames(String sessionName, Destination[] destinations) {
+        String[] subscriptions = new String[destinations.length * consumersPerSession];
+        for (int c = 0; c < subscriptions.length; c++) {
+            if (destinations[c / consumersPerSession] instanceof Topic) {
+                subscriptions[c] = consumersPerSession > 1 ? sessionName + "/subscriber-" + (c % consumersPerSession)
+                        : sessionName;
             }
-            Thread.sleep(receiveTimeoutMS);
-            messages = browser.getEnumeration();
         }
-        browser.close();
+        return subscriptions;
+    }
 
+    public void handleMessage(Session session, Message message, long perConsumerReceivedMessages, SessionStats stats) {
+        handleMessage(session, message, perConsumerReceivedMessages, stats, null);
     }
 
-    public void handleMessage(Session session, Message message, int perConsumerReceivedMessages) {
+    /**
+     * @param subscription the topic subscription the message was delivered to, or null when it came from a queue
+     */
+    public void handleMessage(Session session, Message message, long perConsumerReceivedMessages, SessionStats stats,
+                              String subscription) {
+        ThroughputCounters counters = stats.getCounters();
         try {
+            boolean measuring = !runControl.isWarmingUp();
+            long arrivalMicros = WallClock.currentTimeMicros();
+            Recorder latencyRecorder = stats.getLatencyRecorder();
+            if (measuring && latencyRecorder != null && message.propertyExists(MessageProperties.SEND_TIME_MICROS)) {
+                long latencyMicros = arrivalMicros - message.getLongProperty(MessageProperties.SEND_TIME_MICROS);
+                //Clocks on different hosts can disagree so a negative latency is clamped rather than dropped
+                latencyRecorder.recordValue(latencyMicros > 0 ? latencyMicros : 0);
+            }
+            boolean logMessage = logEvery > 0 && perConsumerReceivedMessages % logEvery == 0;
+            long bodyLength = 0;
+            byte[] decompressedBody = null;
             if (message instanceof TextMessage) {
                 TextMessage textMessage = (TextMessage) message;
                 String text = textMessage.getText();
-                LOGGER.info("Received text message: " + text);
+                bodyLength = text != null ? Utf8.encodedLength(text) : 0;
+                if (logMessage) {
+                    LOGGER.info("Received text message: " + text);
+                }
             } else {
-                LOGGER.info("Received message: " + message);
+                if (message instanceof BytesMessage) {
+                    bodyLength = ((BytesMessage) message).getBodyLength();
+                    String codecName = message.getStringProperty(MessageProperties.CODEC);
+                    if (codecName != null) {
+                        //Counted at its original size so rates compare with uncompressed runs
+                        decompressedBody = stats.getDecompressor().decompress((BytesMessage) message, codecName, measuring);
+                        bodyLength = decompressedBody.length;
+                    }
+                }
+                if (logMessage) {
+                    LOGGER.info("Received message: " + message);
+                }
+            }
+            if (measuring) {
+                counters.onMessage(bodyLength);
+            }
+            ProcessingPipeline pipeline = stats.getPipeline();
+            if (pipeline != null && !pipeline.process(message, decompressedBody, measuring)) {
+                counters.onError();
             }
             if (perMessageSleepMS > 0) {
                 try {
@@ -234,21 +671,113 @@ public class ConsumerTool implements Runnable {
                     LOGGER.debug("Interrupted while sleeping", e);
                 }
             }
-            if (acknowledgeMode == Session.CLIENT_ACKNOWLEDGE) {
-                if (perConsumerReceivedMessages % batchSize == 0) {
-                    message.acknowledge();
-                }
+            if (measuring && destinationTracker != null) {
+                destinationTracker.onMessage(message.getJMSDestination(), bodyLength);
             }
-            if (transacted) {
-                if (perConsumerReceivedMessages % batchSize == 0) {
-                    session.commit();
+            if (groupTracker != null) {
+                String groupId = message.getStringProperty("JMSXGroupID");
+                if (groupId != null) {
+                    String senderId = message.getStringProperty(MessageProperties.GROUP_SENDER);
+                    long sequence = senderId != null ? message.getLongProperty(MessageProperties.GROUP_SEQUENCE) : 0;
+                    groupTracker.onMessage(groupId, senderId, sequence, counters.getName(), subscription, measuring);
                 }
             }
+            if (sequenceTracker != null) {
+                //Checked during warmup too, since a message lost then is still lost
+                String producerId = message.getStringProperty(MessageProperties.PRODUCER_ID);
+                long sequence = producerId != null ? message.getLongProperty(MessageProperties.PRODUCER_SEQUENCE) : 0;
+                sequenceTracker.onMessage(subscription, producerId, sequence, message.getJMSRedelivered());
+            }
+            if (stats.getRecordAppender() != null) {
+                stats.getRecordAppender().append(message, arrivalMicros);
+            }
+            CommitBatcher batcher = stats.getBatcher();
+            if (batcher != null && batcher.add(bodyLength)) {
+                closeBatch(session, message, stats);
+            }
         } catch (JMSException e) {
+            counters.onError();
             LOGGER.error("JMSException handling message: " + e.getMessage(), e);
+        } catch (IOException e) {
+            counters.onError();
+            LOGGER.error("IOException recording message: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Commits the session or acknowledges every message it has delivered so far, depending on the session mode.
+     */
+    private void closeBatch(Session session, Message lastMessage, SessionStats stats) throws JMSException {
+        boolean measuring = !runControl.isWarmingUp();
+        ThreadStates.Entry threadState = stats.getThreadState();
+        ThreadStates.State previousState = threadState.get();
+        threadState.set(ThreadStates.State.COMMITTING);
+        long commitStartNanos = System.nanoTime();
+        try {
+            if (transacted) {
+                session.commit();
+            } else {
+                lastMessage.acknowledge();
+            }
+        } catch (TransactionRolledBackException e) {
+            stats.getCounters().onRollback();
+            throw e;
+        } finally {
+            //An async listener commits from the session's delivery thread so the state goes back to listening
+            threadState.set(previousState);
+        }
+        stats.getBatcher().onCommitted(System.nanoTime() - commitStartNanos, measuring);
+        if (measuring) {
+            stats.getCounters().onCommit();
+        }
+    }
+
+    /**
+     * Closes a partial batch at the end of a run so that its messages are not redelivered after the session closes.
+     */
+    private void closeFinalBatch(Session session, Message lastMessage, SessionStats stats) {
+        CommitBatcher batcher = stats.getBatcher();
+        if (batcher == null || !batcher.hasPending()) {
+            return;
+        }
+        try {
+            closeBatch(session, lastMessage, stats);
+        } catch (JMSException e) {
+            stats.getCounters().onError();
+            LOGGER.error("JMSException closing final batch: " + e.getMessage(), e);
+        }
+    }
+
+    private ProcessingPipeline newPipeline() throws Exception {
+        return processingStages != null ? ProcessingPipeline.create(ProcessingPipeline.parseSpecs(processingStages)) : null;
+    }
+
+    private void addSessionTotals(SessionStats stats) {
+        if (stats.getPipeline() != null) {
+            stageTimings.add(stats.getPipeline());
+        }
+        mergedDecompressionStats.add(stats.getDecompressor().getStats());
+    }
+
+    private SegmentedLogWriter.Appender newRecordAppender() {
+        return recordWriter != null ? recordWriter.newAppender() : null;
+    }
+
+    public void setupRecording() throws IOException {
+        if (recordPath != null) {
+            recordWriter = new SegmentedLogWriter(new File(recordPath), recordSegmentMB * 1024L * 1024L,
+                    recordMode.equalsIgnoreCase("mmap"));
         }
     }
 
+    private boolean isBatching() {
+        return transacted || acknowledgeMode == Session.CLIENT_ACKNOWLEDGE;
+    }
+
+    private CommitBatcher newCommitBatcher() {
+        return isBatching() ? new CommitBatcher(batchSize, batchBytes, batchLingerMS, batchTargetCommitMS) : null;
+    }
+
     public void parseCommandLine(String[] args) {
         CommandLineParser parser = new PosixParser();
 
@@ -295,7 +824,7 @@ public class ConsumerTool implements Runnable {
         Option numThreadsOpt = OptionBuilder.withLongOpt("num-threads")
                 .withArgName("num")
                 .hasArg()
-                .withDescription("number of threads to run in parallel each with a connection")
+                .withDescription("number of connections to run in parallel (each session on a connection gets its own thread)")
                 .create("g");
         options.addOption(numThreadsOpt);
 
@@ -326,7 +855,8 @@ public class ConsumerTool implements Runnable {
         Option destNameOpt = OptionBuilder.withLongOpt("destination-name")
                 .withArgName("name")
                 .hasArg()
-                .withDescription("name of the destination to receive from")
+                .withDescription("name of the destination to receive from, or a pattern such as ORDERS.{0..499} " +
+                        "to receive from each of them")
                 .create("n");
         options.addOption(destNameOpt);
 
@@ -371,6 +901,166 @@ public class ConsumerTool implements Runnable {
                 .create("z");
         options.addOption(batchSizeOpt);
 
+        Option batchBytesOpt = OptionBuilder.withLongOpt("batch-bytes")
+                .withArgName("bytes")
+                .hasArg()
+                .withDescription("also close a batch once its message bodies add up to this many bytes")
+                .create();
+        options.addOption(batchBytesOpt);
+
+        Option batchLingerOpt = OptionBuilder.withLongOpt("batch-linger")
+                .withArgName("millis")
+                .hasArg()
+                .withDescription("also close a batch once this long has passed since its first message, so batches " +
+                        "do not stay open at low rates (not with -y)")
+                .create();
+        options.addOption(batchLingerOpt);
+
+        Option batchTargetCommitOpt = OptionBuilder.withLongOpt("batch-target-commit")
+                .withArgName("millis")
+                .hasArg()
+                .withDescription("adapt the batch size (starting from -z) for the best throughput while keeping " +
+                        "commit latency under this many ms")
+                .create();
+        options.addOption(batchTargetCommitOpt);
+
+        Option reportIntervalOpt = OptionBuilder.withLongOpt("report-interval")
+                .withArgName("seconds")
+                .hasArg()
+                .withDescription("interval (in seconds) at which to log throughput and end-to-end latency percentiles (0 only logs the final totals)")
+                .create();
+        options.addOption(reportIntervalOpt);
+
+        Option sessionsPerConnectionOpt = OptionBuilder.withLongOpt("sessions-per-connection")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("number of sessions to multiplex onto each connection")
+                .create();
+        options.addOption(sessionsPerConnectionOpt);
+
+        Option consumersPerSessionOpt = OptionBuilder.withLongOpt("consumers-per-session")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("number of consumers to create on each session (-m counts messages across all of them)")
+                .create();
+        options.addOption(consumersPerSessionOpt);
+
+        Option logEveryOpt = OptionBuilder.withLongOpt("log-every")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("log every Nth received message (0, the default, disables per message logging)")
+                .create();
+        options.addOption(logEveryOpt);
+
+        Option durationOpt = OptionBuilder.withLongOpt("duration")
+                .withArgName("seconds")
+                .hasArg()
+                .withDescription("receive for this many seconds after the warmup instead of stopping at -m messages per thread")
+                .create();
+        options.addOption(durationOpt);
+
+        Option warmupOpt = OptionBuilder.withLongOpt("warmup")
+                .withArgName("seconds")
+                .hasArg()
+                .withDescription("seconds at the start of the run whose throughput and latency results are discarded, " +
+                        "needs --duration since messages in the warmup count against -m and --total-messages")
+                .create();
+        options.addOption(warmupOpt);
+
+        Option totalMessagesOpt = OptionBuilder.withLongOpt("total-messages")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("number of messages to receive shared across all threads instead of -m per thread")
+                .create();
+        options.addOption(totalMessagesOpt);
+
+        Option virtualThreadsOpt = OptionBuilder.withLongOpt("virtual-threads")
+                .withDescription("run each session on a virtual thread instead of a pooled platform thread (Java 21+), " +
+                        "for simulating thousands of clients")
+                .create();
+        options.addOption(virtualThreadsOpt);
+
+        Option compositeDestinationOpt = OptionBuilder.withLongOpt("composite-destination")
+                .withDescription("join the destinations of a -n pattern such as ORDERS.{0..499} into one composite " +
+                        "destination (ActiveMQ) instead of one destination each")
+                .create();
+        options.addOption(compositeDestinationOpt);
+
+        Option browseSnapshotOpt = OptionBuilder.withLongOpt("browse-snapshot")
+                .withDescription("browse the queue once and stop instead of browsing again for new messages")
+                .create();
+        options.addOption(browseSnapshotOpt);
+
+        Option browseExportOpt = OptionBuilder.withLongOpt("browse-export")
+                .withArgName("file")
+                .hasArg()
+                .withDescription("write every browsed message (headers, properties and body) to this file")
+                .create();
+        options.addOption(browseExportOpt);
+
+        Option browseExportModeOpt = OptionBuilder.withLongOpt("browse-export-mode")
+                .withArgName("mode")
+                .hasArg()
+                .withDescription("how the export file is written: buffered or mmap")
+                .create();
+        options.addOption(browseExportModeOpt);
+
+        Option recordOpt = OptionBuilder.withLongOpt("record")
+                .withArgName("dir")
+                .hasArg()
+                .withDescription("record every consumed message (headers, properties, body and arrival time) to a " +
+                        "segmented log in this directory for replay with ProducerTool")
+                .create();
+        options.addOption(recordOpt);
+
+        Option recordSegmentSizeOpt = OptionBuilder.withLongOpt("record-segment-size")
+                .withArgName("MB")
+                .hasArg()
+                .withDescription("size at which the recording rolls over to a new segment file")
+                .create();
+        options.addOption(recordSegmentSizeOpt);
+
+        Option recordModeOpt = OptionBuilder.withLongOpt("record-mode")
+                .withArgName("mode")
+                .hasArg()
+                .withDescription("how the segments are written: buffered or mmap")
+                .create();
+        options.addOption(recordModeOpt);
+
+        Option trackGroupsOpt = OptionBuilder.withLongOpt("track-groups")
+                .withDescription("report throughput, consumers and out-of-order deliveries for each JMSXGroupID")
+                .create();
+        options.addOption(trackGroupsOpt);
+
+        Option verifySequencesOpt = OptionBuilder.withLongOpt("verify-sequences")
+                .withDescription("check the producer sequence numbers stamped by ProducerTool and report missing, " +
+                        "duplicate and redelivered messages")
+                .create();
+        options.addOption(verifySequencesOpt);
+
+        Option processingThreadsOpt = OptionBuilder.withLongOpt("processing-threads")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("number of worker threads per session that async listener messages are handed to " +
+                        "(messages with the same JMSXGroupID stay in order, 0 processes on the dispatch thread)")
+                .create();
+        options.addOption(processingThreadsOpt);
+
+        Option processingQueueSizeOpt = OptionBuilder.withLongOpt("processing-queue-size")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("number of messages each processing worker may have queued before dispatch blocks")
+                .create();
+        options.addOption(processingQueueSizeOpt);
+
+        Option processingStagesOpt = OptionBuilder.withLongOpt("processing-stages")
+                .withArgName("stages")
+                .hasArg()
+                .withDescription("comma separated stages run on every message to model CPU bound work, each " +
+                        "name[:arg] where name is checksum, json, xml, compress[:level], spin:<micros> or the class " +
+                        "name of a tools.ProcessingStage implementation (per-stage timings are reported)")
+                .create();
+        options.addOption(processingStagesOpt);
 
 
 
@@ -468,6 +1158,98 @@ public class ConsumerTool implements Runnable {
                 batchSize = Integer.parseInt(line.getOptionValue("z"));
             }
 
+            if(line.hasOption("batch-bytes")) {
+                batchBytes = Long.parseLong(line.getOptionValue("batch-bytes"));
+            }
+
+            if(line.hasOption("batch-linger")) {
+                batchLingerMS = Long.parseLong(line.getOptionValue("batch-linger"));
+            }
+
+            if(line.hasOption("batch-target-commit")) {
+                batchTargetCommitMS = Long.parseLong(line.getOptionValue("batch-target-commit"));
+            }
+
+            if(line.hasOption("report-interval")) {
+                reportIntervalSeconds = Integer.parseInt(line.getOptionValue("report-interval"));
+            }
+
+            if(line.hasOption("sessions-per-connection")) {
+                sessionsPerConnection = Integer.parseInt(line.getOptionValue("sessions-per-connection"));
+            }
+
+            if(line.hasOption("consumers-per-session")) {
+                consumersPerSession = Integer.parseInt(line.getOptionValue("consumers-per-session"));
+            }
+
+            if(line.hasOption("log-every")) {
+                logEvery = Integer.parseInt(line.getOptionValue("log-every"));
+            }
+
+            if(line.hasOption("duration")) {
+                durationSeconds = Integer.parseInt(line.getOptionValue("duration"));
+            }
+
+            if(line.hasOption("warmup")) {
+                warmupSeconds = Integer.parseInt(line.getOptionValue("warmup"));
+            }
+
+            if(line.hasOption("total-messages")) {
+                totalMessages = Long.parseLong(line.getOptionValue("total-messages"));
+            }
+
+            if(line.hasOption("virtual-threads")) {
+                virtualThreads = true;
+            }
+
+            if(line.hasOption("composite-destination")) {
+                compositeDestination = true;
+            }
+
+            if(line.hasOption("browse-snapshot")) {
+                browseSnapshot = true;
+            }
+
+            if(line.hasOption("browse-export")) {
+                browseExportPath = line.getOptionValue("browse-export");
+            }
+
+            if(line.hasOption("browse-export-mode")) {
+                browseExportMode = line.getOptionValue("browse-export-mode");
+            }
+
+            if(line.hasOption("record")) {
+                recordPath = line.getOptionValue("record");
+            }
+
+            if(line.hasOption("record-segment-size")) {
+                recordSegmentMB = Integer.parseInt(line.getOptionValue("record-segment-size"));
+            }
+
+            if(line.hasOption("record-mode")) {
+                recordMode = line.getOptionValue("record-mode");
+            }
+
+            if(line.hasOption("track-groups")) {
+                trackGroups = true;
+            }
+
+            if(line.hasOption("verify-sequences")) {
+                verifySequences = true;
+            }
+
+            if(line.hasOption("processing-threads")) {
+                processingThreads = Integer.parseInt(line.getOptionValue("processing-threads"));
+            }
+
+            if(line.hasOption("processing-queue-size")) {
+                processingQueueSize = Integer.parseInt(line.getOptionValue("processing-queue-size"));
+            }
+
+            if(line.hasOption("processing-stages")) {
+                processingStages = line.getOptionValue("processing-stages");
+            }
+
         } catch (ParseException exp) {
             LOGGER.error("Commandline parsing exception: " + exp.getMessage(), exp);
             HelpFormatter formatter = new HelpFormatter();
@@ -480,10 +1262,21 @@ public class ConsumerTool implements Runnable {
         LOGGER.info("Internal state: acknowledgeMode = {}, useQueueBrowser = {}, clientId = {}, durable = {}, perMessageSleepMS = {}, " +
                 "connectionFactoryName = {}, numThreads = {}, jndiLookupDestinations = {}, selector = {}, numMessages = {}, " +
                 "destinationName = {}, useTemporaryDestinations = {}, useQueueDestinations = {}, receiveTimeoutMS = {}, " +
-                "subscriptionName = {}, transacted = {}, useAsyncListener = {}, batchSize = {}",
+                "subscriptionName = {}, transacted = {}, useAsyncListener = {}, batchSize = {}, reportIntervalSeconds = {}, " +
+                "sessionsPerConnection = {}, consumersPerSession = {}, logEvery = {}, durationSeconds = {}, warmupSeconds = {}, " +
+                "totalMessages = {}, processingThreads = {}, processingQueueSize = {}, virtualThreads = {}, " +
+                "batchBytes = {}, batchLingerMS = {}, batchTargetCommitMS = {}, browseSnapshot = {}, browseExportPath = {}, " +
+                "browseExportMode = {}, recordPath = {}, recordSegmentMB = {}, recordMode = {}, " +
+                "trackGroups = {}, compositeDestination = {}, verifySequences = {}, processingStages = {}",
                 new Object[] {acknowledgeMode, useQueueBrowser, clientId, durable, perMessageSleepMS, connectionFactoryName,
                         numThreads, jndiLookupDestinations, selector, numMessages, destinationName, useTemporaryDestinations,
-                        useQueueDestinations, receiveTimeoutMS, subscriptionName, transacted, useAsyncListener, batchSize});
+                        useQueueDestinations, receiveTimeoutMS, subscriptionName, transacted, useAsyncListener, batchSize, reportIntervalSeconds,
+                        sessionsPerConnection, consumersPerSession, logEvery,
+                        durationSeconds, warmupSeconds, totalMessages,
+                        processingThreads, processingQueueSize, virtualThreads,
+                        batchBytes, batchLingerMS, batchTargetCommitMS, browseSnapshot, browseExportPath,
+                        browseExportMode, recordPath, recordSegmentMB, recordMode, trackGroups, compositeDestination,
+                        verifySequences, processingStages});
     }
 
     public void validateInternalState() throws Exception {
@@ -493,5 +1286,77 @@ public class ConsumerTool implements Runnable {
         if(useQueueDestinations && durable) {
             throw new Exception("Cannot create a durable (-d) queue receiver (-q). Durable can only be used with topic subscribers.");
         }
+        if(!browseExportMode.equalsIgnoreCase("buffered") && !browseExportMode.equalsIgnoreCase("mmap")) {
+            throw new Exception("Cannot use browse export mode " + browseExportMode + ", expected buffered or mmap");
+        }
+        if(!recordMode.equalsIgnoreCase("buffered") && !recordMode.equalsIgnoreCase("mmap")) {
+            throw new Exception("Cannot use record mode " + recordMode + ", expected buffered or mmap");
+        }
+        if(recordSegmentMB < 1) {
+            throw new Exception("Cannot set recordSegmentMB to less than one");
+        }
+        if((browseSnapshot || browseExportPath != null) && !useQueueBrowser) {
+            throw new Exception("Cannot take a browse snapshot or export without the queue browser (-b)");
+        }
+        if(browseExportPath != null && getNumSessionThreads() > 1) {
+            throw new Exception("Cannot export a browse from more than one session since they would share the file");
+        }
+        if(batchSize < 1) {
+            throw new Exception("Cannot set batchSize to less than one");
+        }
+        if(batchBytes < 0 || batchLingerMS < 0 || batchTargetCommitMS < 0) {
+            throw new Exception("Cannot set batchBytes, batchLingerMS or batchTargetCommitMS to a negative number");
+        }
+        if(batchLingerMS > 0 && useAsyncListener) {
+            //The linger is only checked when a message arrives, and committing from a timer would use the session off
+            //its delivery thread, so an idle async batch could never be closed on time
+            throw new Exception("Cannot use a batch linger time with an async listener (-y)");
+        }
+        if(useQueueBrowser && DestinationNames.expand(destinationName).size() > 1) {
+            throw new Exception("Cannot browse a destination pattern, the queue browser takes a single queue");
+        }
+        if(useTemporaryDestinations && DestinationNames.expand(destinationName).size() > 1) {
+            throw new Exception("Cannot use a destination pattern with temporary destinations");
+        }
+        if(virtualThreads && !ClientThreads.isVirtualThreadSupported()) {
+            throw new Exception("Cannot use virtual threads on Java " + System.getProperty("java.version") +
+                    ", Java 21 or later is required");
+        }
+        if(numThreads < 1 || sessionsPerConnection < 1 || consumersPerSession < 1) {
+            throw new Exception("Cannot set numThreads, sessionsPerConnection or consumersPerSession to less than one");
+        }
+        if(durationSeconds < 0 || warmupSeconds < 0 || totalMessages < 0) {
+            throw new Exception("Cannot set durationSeconds, warmupSeconds or totalMessages to a negative number");
+        }
+        if(warmupSeconds > 0 && durationSeconds == 0 && (!runUntilStopped || totalMessages > 0)) {
+            //A message limit could otherwise be used up inside the warmup, leaving nothing to measure
+            throw new Exception("Cannot use a warmup without a duration (--duration)");
+        }
+        if(processingThreads < 0 || processingQueueSize < 1) {
+            throw new Exception("Cannot set processingThreads to a negative number or processingQueueSize to less than one");
+        }
+        if(processingStages != null) {
+            if(ProcessingPipeline.parseSpecs(processingStages).isEmpty()) {
+                throw new Exception("Cannot use an empty list of processing stages");
+            }
+            if(useQueueBrowser) {
+                throw new Exception("Cannot run processing stages on browsed messages (-b)");
+            }
+            try {
+                ProcessingPipeline.create(ProcessingPipeline.parseSpecs(processingStages));
+            } catch (Exception e) {
+                throw new Exception("Cannot create processing stages " + processingStages + ": " + e.getMessage(), e);
+            }
+        }
+        if(processingThreads > 0 && !useAsyncListener) {
+            throw new Exception("Cannot use processing threads without an async listener (-y)");
+        }
+        if(processingThreads > 0 && (transacted || acknowledgeMode == Session.CLIENT_ACKNOWLEDGE)) {
+            //Commits and client acks are session calls and a session must not be used from the worker threads
+            throw new Exception("Cannot use processing threads with a transacted (-t) or CLIENT_ACKNOWLEDGE session");
+        }
+        if(durable && consumersPerSession > 1) {
+            throw new Exception("Cannot create more than one durable subscriber (-d) per session with the same subscription name");
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expands destination name patterns such as {@code ORDERS.{0..499}} or {@code {EU,US}.ORDERS} into the list of
+ * names they cover.  Names without braces, including provider wildcards, are passed through unchanged.
+ */
+public final class DestinationNames {
+    private DestinationNames() {
+    }
+
+    public static List<String> expand(String pattern) {
+        List<String> names = new ArrayList<String>();
+        expand(pattern, names);
+        return names;
+    }
+
+    private static void expand(String pattern, List<String> names) {
+        int open = pattern.indexOf('{');
+        if (open < 0) {
+            names.add(pattern);
+            return;
+        }
+        int close = pattern.indexOf('}', open);
+        if (close < 0) {
+            throw new IllegalArgumentException("Unclosed { in destination pattern: " + pattern);
+        }
+        String prefix = pattern.substring(0, open);
+        String body = pattern.substring(open + 1, close);
+        String suffix = pattern.substring(close + 1);
+        int range = body.indexOf("..");
+        if (range >= 0) {
+            int from = Integer.parseInt(body.substring(0, range).trim());
+            int to = Integer.parseInt(body.substring(range + 2).trim());
+            if (to < from) {
+                throw new IllegalArgumentException("Empty range in destination pattern: " + pattern);
+            }
+            for (int i = from; i <= to; i++) {
+                expand(prefix + i + suffix, names);
+            }
+        } else {
+            for (String choice : body.split(",")) {
+                expand(prefix + choice.trim() + suffix, names);
+            }
+        }
+    }
+
+    /**
+     * Joins the names into a single composite destination name, for providers such as ActiveMQ that support them.
+     */
+    public static String composite(List<String> names) {
+        StringBuilder composite = new StringBuilder();
+        for (String name : names) {
+            if (composite.length() > 0) {
+                composite.append(',');
+            }
+            composite.append(name);
+        }
+        return composite.toString();
+    }
+}
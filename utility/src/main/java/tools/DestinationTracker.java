@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message and byte counts per destination, shared by all sessions of a tool.  Destinations are keyed by whatever
+ * identifies them cheaply on the hot path, either the name or the provider's destination object.
+ */
+public class DestinationTracker {
+    //With more destinations than this only the busiest are logged individually
+    private static final int DESTINATION_LINE_LIMIT = 64;
+    private static final int BUSY_DESTINATION_LINES = 10;
+
+    private final String verb;
+    private final ConcurrentMap<Object, Counts> destinations = new ConcurrentHashMap<Object, Counts>();
+
+    public DestinationTracker(String verb) {
+        this.verb = verb;
+    }
+
+    public void onMessage(Object destination, long messageBytes) {
+        Counts counts = destinations.get(destination);
+        if (counts == null) {
+            Counts created = new Counts();
+            counts = destinations.putIfAbsent(destination, created);
+            if (counts == null) {
+                counts = created;
+            }
+        }
+        counts.messages.incrementAndGet();
+        counts.bytes.addAndGet(messageBytes);
+    }
+
+    public void log(Logger logger, long elapsedNanos) {
+        List<Map.Entry<Object, Counts>> sorted = new ArrayList<Map.Entry<Object, Counts>>(destinations.entrySet());
+        Collections.sort(sorted, new Comparator<Map.Entry<Object, Counts>>() {
+            @Override
+            public int compare(Map.Entry<Object, Counts> a, Map.Entry<Object, Counts> b) {
+                return Long.compare(b.getValue().messages.get(), a.getValue().messages.get());
+            }
+        });
+        Histogram destinationMessages = Histograms.create();
+        int lines = sorted.size() > DESTINATION_LINE_LIMIT ? BUSY_DESTINATION_LINES : sorted.size();
+        for (int d = 0; d < sorted.size(); d++) {
+            Counts counts = sorted.get(d).getValue();
+            destinationMessages.recordValue(counts.messages.get());
+            if (d < lines) {
+                logger.info("Destination {} {} {} messages, {} bytes ({} msgs/s)", new Object[] {sorted.get(d).getKey(),
+                        verb, counts.messages.get(), counts.bytes.get(), Rates.perSecond(counts.messages.get(), elapsedNanos)});
+            }
+        }
+        if (lines < sorted.size()) {
+            logger.info("{} quieter destinations not listed", sorted.size() - lines);
+        }
+        Histograms.log(logger, "Per-destination " + verb, "msgs", destinationMessages);
+    }
+
+    private static class Counts {
+        final AtomicLong messages = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows every message group seen by the consumers: how much traffic it carried, which consumers it landed on and
+ * whether its sequence numbers arrived in order.  Sequences are checked per sending session since JMS only orders
+ * the messages of one session.  Every topic subscription receives its own copy of a group, so on topics both the
+ * ordering and whether a group was split across consumers are checked within each subscription.
+ */
+public class GroupTracker {
+    //Queue consumers are tracked under the empty subscription
+    private static final String SHARED = "";
+    //With more groups than this only the hottest are logged individually
+    private static final int GROUP_LINE_LIMIT = 64;
+    private static final int HOT_GROUP_LINES = 10;
+
+    private final ConcurrentMap<String, GroupStats> groups = new ConcurrentHashMap<String, GroupStats>();
+
+    /**
+     * @param senderId the sending session, or null when the message carries no sequence
+     * @param consumerName the session or worker that received the message
+     * @param subscription the topic subscription the message was delivered to, or null for a queue
+     * @param measuring false during warmup, when sequences are still checked but nothing is counted
+     */
+    public void onMessage(String groupId, String senderId, long sequence, String consumerName, String subscription,
+                          boolean measuring) {
+        GroupStats stats = groups.get(groupId);
+        if (stats == null) {
+            GroupStats created = new GroupStats(groupId);
+            stats = groups.putIfAbsent(groupId, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        stats.onMessage(senderId, sequence, consumerName, subscription != null ? subscription : SHARED, measuring);
+    }
+
+    public long getOutOfOrder() {
+        long outOfOrder = 0;
+        for (GroupStats stats : groups.values()) {
+            synchronized (stats) {
+                outOfOrder += stats.outOfOrder;
+            }
+        }
+        return outOfOrder;
+    }
+
+    public int getSplitGroups() {
+        int splitGroups = 0;
+        for (GroupStats stats : groups.values()) {
+            if (stats.isSplit()) {
+                splitGroups++;
+            }
+        }
+        return splitGroups;
+    }
+
+    public void log(Logger logger, long elapsedNanos) {
+        List<GroupStats> sorted = new ArrayList<GroupStats>(groups.values());
+        Collections.sort(sorted, new Comparator<GroupStats>() {
+            @Override
+            public int compare(GroupStats a, GroupStats b) {
+                return Long.compare(b.getMessages(), a.getMessages());
+            }
+        });
+
+        long outOfOrder = 0;
+        long gaps = 0;
+        int splitGroups = 0;
+        Histogram groupMessages = Histograms.create();
+        for (GroupStats stats : sorted) {
+            synchronized (stats) {
+                outOfOrder += stats.outOfOrder;
+                gaps += stats.gaps;
+                if (stats.isSplit()) {
+                    splitGroups++;
+                }
+                groupMessages.recordValue(stats.messages);
+            }
+        }
+        int lines = sorted.size() > GROUP_LINE_LIMIT ? HOT_GROUP_LINES : sorted.size();
+        for (int g = 0; g < lines; g++) {
+            GroupStats stats = sorted.get(g);
+            synchronized (stats) {
+                logger.info("Group {} received {} messages ({} msgs/s) on {}, {} out of order, {} gaps",
+                        new Object[] {stats.groupId, stats.messages, Rates.perSecond(stats.messages, elapsedNanos),
+                                stats.consumers, stats.outOfOrder, stats.gaps});
+            }
+        }
+        if (lines < sorted.size()) {
+            logger.info("{} colder groups not listed", sorted.size() - lines);
+        }
+        Histograms.log(logger, "Per-group received", "msgs", groupMessages);
+        logger.info("Tracked {} groups in {} ms: {} out-of-order deliveries, {} sequence gaps, {} groups split across " +
+                "consumers", new Object[] {sorted.size(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos), outOfOrder, gaps,
+                splitGroups});
+    }
+
+    private static class GroupStats {
+        final String groupId;
+        final Set<String> consumers = new LinkedHashSet<String>();
+        //The consumer that received the group first in each subscription, and the last sequence of each sender there
+        final Map<String, String> firstConsumers = new HashMap<String, String>();
+        final Map<String, Map<String, Long>> lastSequences = new HashMap<String, Map<String, Long>>();
+        boolean split;
+        long messages;
+        long outOfOrder;
+        long gaps;
+
+        GroupStats(String groupId) {
+            this.groupId = groupId;
+        }
+
+        synchronized void onMessage(String senderId, long sequence, String consumerName, String subscription,
+                                    boolean measuring) {
+            if (measuring) {
+                messages++;
+            }
+            consumers.add(consumerName);
+            String firstConsumer = firstConsumers.get(subscription);
+            if (firstConsumer == null) {
+                firstConsumers.put(subscription, consumerName);
+            } else if (!firstConsumer.equals(consumerName)) {
+                split = true;
+            }
+            if (senderId == null) {
+                return;
+            }
+            Map<String, Long> senderSequences = lastSequences.get(subscription);
+            if (senderSequences == null) {
+                senderSequences = new HashMap<String, Long>();
+                lastSequences.put(subscription, senderSequences);
+            }
+            Long last = senderSequences.get(senderId);
+            if (last != null) {
+                if (sequence <= last) {
+                    outOfOrder++;
+                    return;
+                }
+                if (sequence > last + 1) {
+                    gaps++;
+                }
+            }
+            senderSequences.put(senderId, sequence);
+        }
+
+        synchronized boolean isSplit() {
+            return split;
+        }
+
+        synchronized long getMessages() {
+            return messages;
+        }
+    }
+}
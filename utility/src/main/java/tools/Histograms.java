@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+
+/**
+ * Shared helpers for creating and logging the latency histograms used by the tools.  All values are recorded in
+ * microseconds.
+ */
+public final class Histograms {
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private Histograms() {
+    }
+
+    /**
+     * Creates an auto-resizing histogram so that an unexpectedly long stall never fails a record call.
+     */
+    public static Histogram create() {
+        Histogram histogram = new Histogram(SIGNIFICANT_DIGITS);
+        histogram.setAutoResize(true);
+        return histogram;
+    }
+
+    public static void recordNanos(Histogram histogram, long nanos) {
+        histogram.recordValue(nanos > 0 ? nanos / 1000L : 0L);
+    }
+
+    public static void recordNanos(Recorder recorder, long nanos) {
+        recorder.recordValue(nanos > 0 ? nanos / 1000L : 0L);
+    }
+
+    public static void log(Logger logger, String label, Histogram histogram) {
+        log(logger, label, "us", histogram);
+    }
+
+    /**
+     * Logs a histogram holding something other than latencies, such as the spread of per-session rates.
+     */
+    public static void log(Logger logger, String label, String unit, Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            logger.info("{}: no samples", label);
+            return;
+        }
+        logger.info("{} ({}): count = {}, p50 = {}, p99 = {}, p99.9 = {}, max = {}",
+                new Object[] {label, unit, histogram.getTotalCount(), histogram.getValueAtPercentile(50.0),
+                        histogram.getValueAtPercentile(99.0), histogram.getValueAtPercentile(99.9),
+                        histogram.getMaxValue()});
+    }
+}
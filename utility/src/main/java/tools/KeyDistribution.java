@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks one of a fixed number of keys, such as message groups or destinations, for each message: evenly in turn,
+ * uniformly at random or with a Zipfian skew where a few hot keys get most of the traffic.  Instances are immutable
+ * and shared by all producer threads.
+ */
+public class KeyDistribution {
+    private final int keyCount;
+    private final boolean uniform;
+    private final double[] cumulativeProbabilities;
+
+    private KeyDistribution(int keyCount, boolean uniform, double[] cumulativeProbabilities) {
+        this.keyCount = keyCount;
+        this.uniform = uniform;
+        this.cumulativeProbabilities = cumulativeProbabilities;
+    }
+
+    /**
+     * @param distribution uniform, round-robin or zipf
+     * @param exponent Zipf skew, where 1.0 gives the classic 1/rank frequencies and larger values are more skewed
+     */
+    public static KeyDistribution create(String distribution, int keyCount, double exponent) {
+        double[] cumulativeProbabilities = null;
+        if (distribution.equalsIgnoreCase("zipf")) {
+            //Built once so that picking a key is a binary search instead of a walk over every key
+            cumulativeProbabilities = new double[keyCount];
+            double total = 0;
+            for (int k = 0; k < keyCount; k++) {
+                total += 1.0 / Math.pow(k + 1, exponent);
+                cumulativeProbabilities[k] = total;
+            }
+            for (int k = 0; k < keyCount; k++) {
+                cumulativeProbabilities[k] /= total;
+            }
+        } else if (!isValid(distribution)) {
+            throw new IllegalArgumentException("Unknown key distribution: " + distribution);
+        }
+        return new KeyDistribution(keyCount, distribution.equalsIgnoreCase("uniform"), cumulativeProbabilities);
+    }
+
+    public static boolean isValid(String distribution) {
+        return distribution.equalsIgnoreCase("round-robin") || distribution.equalsIgnoreCase("uniform")
+                || distribution.equalsIgnoreCase("zipf");
+    }
+
+    /**
+     * Picks the key for the index-th message of a session.
+     */
+    public int next(long index) {
+        if (cumulativeProbabilities != null) {
+            int k = Arrays.binarySearch(cumulativeProbabilities, ThreadLocalRandom.current().nextDouble());
+            return Math.min(k >= 0 ? k : -k - 1, keyCount - 1);
+        }
+        if (uniform) {
+            return ThreadLocalRandom.current().nextInt(keyCount);
+        }
+        return (int) Math.floorMod(index, (long) keyCount);
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects latency from many threads, each recording into its own {@link Recorder}, and logs the per-thread and
+ * merged percentiles at a fixed interval and once more when stopped.  Recording is allocation free; the interval
+ * histograms are swapped out and merged on the reporting thread, or on whichever thread reads the recent histogram.
+ */
+public class LatencyTracker {
+    private final Logger logger;
+    private final String label;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final Histogram recent = Histograms.create();
+    private ScheduledExecutorService reporter;
+    private boolean summarizeEntries;
+
+    public LatencyTracker(Logger logger, String label) {
+        this.logger = logger;
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public synchronized Recorder register(String name) {
+        Entry entry = new Entry(name);
+        entries.add(entry);
+        return entry.recorder;
+    }
+
+    /**
+     * Logs only the merged histograms plus the distribution of per-entry p99 values instead of one line per entry.
+     */
+    public synchronized void setSummarizeEntries(boolean summarizeEntries) {
+        this.summarizeEntries = summarizeEntries;
+    }
+
+    public void start(long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, label + "-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                logInterval();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() throws InterruptedException {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        logTotals();
+    }
+
+    /**
+     * Merges the totals of every entry, including whatever was recorded since the last interval.
+     */
+    public synchronized Histogram getTotalHistogram() {
+        Histogram merged = Histograms.create();
+        for (Entry entry : entries) {
+            sampleInterval(entry);
+            merged.add(entry.total);
+        }
+        return merged;
+    }
+
+    /**
+     * Returns everything recorded across all entries since the previous call, without disturbing the interval and
+     * total logging.
+     */
+    public synchronized Histogram takeRecentHistogram() {
+        for (Entry entry : entries) {
+            sampleInterval(entry);
+        }
+        Histogram taken = recent.copy();
+        recent.reset();
+        return taken;
+    }
+
+    /**
+     * Moves whatever the entry's recorder holds into its unlogged and total histograms and into the recent merge.
+     */
+    private void sampleInterval(Entry entry) {
+        entry.interval = entry.recorder.getIntervalHistogram(entry.interval);
+        entry.unlogged.add(entry.interval);
+        entry.total.add(entry.interval);
+        recent.add(entry.interval);
+    }
+
+    synchronized void logInterval() {
+        Histogram merged = Histograms.create();
+        for (Entry entry : entries) {
+            sampleInterval(entry);
+            if (!summarizeEntries) {
+                Histograms.log(logger, "Interval " + label + " [" + entry.name + "]", entry.unlogged);
+            }
+            merged.add(entry.unlogged);
+            entry.unlogged.reset();
+        }
+        Histograms.log(logger, "Interval " + label + " [all]", merged);
+    }
+
+    synchronized void logTotals() {
+        Histogram merged = Histograms.create();
+        Histogram entryP99s = Histograms.create();
+        for (Entry entry : entries) {
+            sampleInterval(entry);
+            if (summarizeEntries) {
+                if (entry.total.getTotalCount() > 0) {
+                    entryP99s.recordValue(entry.total.getValueAtPercentile(99.0));
+                }
+            } else {
+                Histograms.log(logger, "Total " + label + " [" + entry.name + "]", entry.total);
+            }
+            merged.add(entry.total);
+        }
+        if (summarizeEntries) {
+            Histograms.log(logger, "Total " + label + " p99 across " + entries.size() + " entries", entryP99s);
+        }
+        Histograms.log(logger, "Total " + label + " [all]", merged);
+    }
+
+    private static class Entry {
+        final String name;
+        final Recorder recorder = new Recorder(3);
+        final Histogram total = Histograms.create();
+        //Sampled for a reader of the recent histogram but not yet part of a logged interval
+        final Histogram unlogged = Histograms.create();
+        Histogram interval;
+
+        Entry(String name) {
+            this.name = name;
+        }
+    }
+}
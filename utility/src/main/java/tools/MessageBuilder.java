@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Builds the body of each message ProducerTool sends.  One builder belongs to one session thread because the
+ * padding and compression buffers it reuses for bytes messages are not shared.
+ */
+public class MessageBuilder {
+    private final int bytesLength;
+    private final PayloadPool payloadPool;
+    //Padding for the generated bytes messages is allocated once and only the needed prefix is written
+    private byte[] paddingBytes;
+    private long lastBodyLength;
+    private final CompressionCodec codec;
+    private final CompressionStats compressionStats;
+    private byte[] uncompressedBytes;
+    private byte[] compressedBytes;
+
+    /**
+     * @param bytesLength length of each bytes message, or -1 to send text messages
+     * @param payloadPool precomputed bodies to cycle through, or null to generate a body per message
+     */
+    public MessageBuilder(int bytesLength, PayloadPool payloadPool) {
+        this(bytesLength, payloadPool, null, null);
+    }
+
+    /**
+     * @param codec compresses the body of every bytes message, or null to send them as they are
+     * @param compressionStats counts what the codec did, only used with a codec
+     */
+    public MessageBuilder(int bytesLength, PayloadPool payloadPool, CompressionCodec codec,
+                          CompressionStats compressionStats) {
+        this.bytesLength = bytesLength;
+        this.payloadPool = payloadPool;
+        this.codec = codec;
+        this.compressionStats = compressionStats;
+    }
+
+    public Message build(Session session, long index) throws JMSException {
+        if (bytesLength > -1 && codec != null) {
+            return buildCompressed(session, index);
+        }
+        if (bytesLength > -1) {
+            BytesMessage bytesMessage = session.createBytesMessage();
+            if (payloadPool != null) {
+                byte[] payloadBytes = payloadPool.bytesAt(payloadIndex(index));
+                bytesMessage.writeBytes(payloadBytes);
+                lastBodyLength = payloadBytes.length;
+            } else {
+                byte[] messageTextBytes = ("Message " + index + " at " + new Date()).getBytes(StandardCharsets.UTF_8);
+                bytesMessage.writeBytes(messageTextBytes);
+                lastBodyLength = Math.max(messageTextBytes.length, bytesLength);
+                if (messageTextBytes.length < bytesLength) {
+                    if (paddingBytes == null) {
+                        paddingBytes = new byte[bytesLength];
+                    }
+                    bytesMessage.writeBytes(paddingBytes, 0, bytesLength - messageTextBytes.length);
+                }
+            }
+            return bytesMessage;
+        } else {
+            String messageText;
+            if (payloadPool != null) {
+                int payload = payloadIndex(index);
+                messageText = payloadPool.textAt(payload);
+                lastBodyLength = payloadPool.textLengthAt(payload);
+            } else {
+                messageText = "Message " + index + " at " + new Date();
+                lastBodyLength = Utf8.encodedLength(messageText);
+            }
+            return session.createTextMessage(messageText);
+        }
+    }
+
+    /**
+     * Assembles the same body as an uncompressed bytes message would carry and writes it compressed, tagged with the
+     * codec and the original length so ConsumerTool can restore it.
+     */
+    private Message buildCompressed(Session session, long index) throws JMSException {
+        byte[] body;
+        int bodyLength;
+        if (payloadPool != null) {
+            body = payloadPool.bytesAt(payloadIndex(index));
+            bodyLength = body.length;
+        } else {
+            byte[] messageTextBytes = ("Message " + index + " at " + new Date()).getBytes(StandardCharsets.UTF_8);
+            bodyLength = Math.max(messageTextBytes.length, bytesLength);
+            if (uncompressedBytes == null || uncompressedBytes.length < bodyLength) {
+                uncompressedBytes = new byte[bodyLength];
+            }
+            System.arraycopy(messageTextBytes, 0, uncompressedBytes, 0, messageTextBytes.length);
+            //The buffer is reused so the padding after a shorter text has to be cleared again
+            Arrays.fill(uncompressedBytes, messageTextBytes.length, bodyLength, (byte) 0);
+            body = uncompressedBytes;
+        }
+        int maxCompressedLength = codec.maxCompressedLength(bodyLength);
+        if (compressedBytes == null || compressedBytes.length < maxCompressedLength) {
+            compressedBytes = new byte[maxCompressedLength];
+        }
+        long startNanos = System.nanoTime();
+        int compressedLength = codec.compress(body, bodyLength, compressedBytes);
+        compressionStats.record(bodyLength, compressedLength, System.nanoTime() - startNanos);
+
+        BytesMessage bytesMessage = session.createBytesMessage();
+        bytesMessage.writeBytes(compressedBytes, 0, compressedLength);
+        bytesMessage.setStringProperty(MessageProperties.CODEC, codec.getName());
+        bytesMessage.setIntProperty(MessageProperties.UNCOMPRESSED_LENGTH, bodyLength);
+        lastBodyLength = bodyLength;
+        return bytesMessage;
+    }
+
+    private int payloadIndex(long index) {
+        return (int) Math.floorMod(index, (long) payloadPool.size());
+    }
+
+    /**
+     * Length of the body written by the last {@link #build} call before any compression, since a bytes message being
+     * written cannot report its own length.  Text bodies are counted in UTF-8 bytes.
+     */
+    public long getLastBodyLength() {
+        return lastBodyLength;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+
+/**
+ * Encodes a message's headers, properties and body into a compact binary record for writing to disk, and rebuilds
+ * messages from such records for replay.  The buffers are reused between messages so each instance belongs to a
+ * single thread.
+ */
+public class MessageCodec {
+    static final byte BODY_NONE = 0;
+    static final byte BODY_TEXT = 1;
+    static final byte BODY_BYTES = 2;
+
+    static final byte PROPERTY_BOOLEAN = 1;
+    static final byte PROPERTY_BYTE = 2;
+    static final byte PROPERTY_SHORT = 3;
+    static final byte PROPERTY_INT = 4;
+    static final byte PROPERTY_LONG = 5;
+    static final byte PROPERTY_FLOAT = 6;
+    static final byte PROPERTY_DOUBLE = 7;
+    static final byte PROPERTY_STRING = 8;
+
+    private final RecordBuffer buffer = new RecordBuffer();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private byte[] bodyBuffer = new byte[1024];
+    private long lastArrivalMicros;
+    private long lastBodyLength;
+    private int lastPriority;
+    private int lastDeliveryMode;
+
+    /**
+     * Encodes the message into the internal buffer and returns the record length.  The encoded bytes are available
+     * from {@link #getRecord()} until the next call.
+     */
+    public int encode(Message message, long arrivalMicros) throws JMSException, IOException {
+        buffer.reset();
+        out.writeLong(arrivalMicros);
+        writeString(message.getJMSMessageID());
+        out.writeLong(message.getJMSTimestamp());
+        writeString(message.getJMSCorrelationID());
+        writeString(message.getJMSType());
+        out.writeInt(message.getJMSPriority());
+        out.writeInt(message.getJMSDeliveryMode());
+        writeProperties(message);
+        writeBody(message);
+        out.flush();
+        return buffer.size();
+    }
+
+    public byte[] getRecord() {
+        return buffer.array();
+    }
+
+    /**
+     * Rebuilds the message in a record on the given session.  The message ID and timestamp are assigned again when
+     * it is sent, and provider-set JMSX properties other than the group ones are left out since clients cannot set
+     * them.
+     */
+    public Message decode(ByteBuffer record, Session session) throws JMSException {
+        lastArrivalMicros = record.getLong();
+        readString(record);
+        record.getLong();
+        String correlationId = readString(record);
+        String type = readString(record);
+        //Both are send parameters that the provider overwrites when set on the message, see getLastPriority()
+        lastPriority = record.getInt();
+        lastDeliveryMode = record.getInt();
+
+        //The body comes after the properties but decides which kind of message to create, so skip ahead to it
+        int propertiesStart = record.position();
+        int propertyCount = record.getInt();
+        for (int i = 0; i < propertyCount; i++) {
+            readString(record);
+            readProperty(record);
+        }
+        Message message;
+        byte bodyType = record.get();
+        if (bodyType == BODY_TEXT) {
+            //The text is stored UTF-8 encoded so its length prefix is already the size in bytes
+            int textLength = record.getInt(record.position());
+            String text = readString(record);
+            message = session.createTextMessage(text);
+            lastBodyLength = Math.max(textLength, 0);
+        } else if (bodyType == BODY_BYTES) {
+            int length = record.getInt();
+            BytesMessage bytesMessage = session.createBytesMessage();
+            bytesMessage.writeBytes(readBytes(record, length), 0, length);
+            message = bytesMessage;
+            lastBodyLength = length;
+        } else {
+            message = session.createMessage();
+            lastBodyLength = 0;
+        }
+        int recordEnd = record.position();
+
+        if (correlationId != null) {
+            message.setJMSCorrelationID(correlationId);
+        }
+        if (type != null) {
+            message.setJMSType(type);
+        }
+        record.position(propertiesStart + 4);
+        for (int i = 0; i < propertyCount; i++) {
+            String name = readString(record);
+            Object value = readProperty(record);
+            if (!name.startsWith("JMSX") || name.equals("JMSXGroupID") || name.equals("JMSXGroupSeq")) {
+                message.setObjectProperty(name, value);
+            }
+        }
+        record.position(recordEnd);
+        return message;
+    }
+
+    /**
+     * The capture time of the last decoded record in microseconds.
+     */
+    public long getLastArrivalMicros() {
+        return lastArrivalMicros;
+    }
+
+    /**
+     * The body length of the last decoded record, counted the same way ConsumerTool counts received bytes.
+     */
+    public long getLastBodyLength() {
+        return lastBodyLength;
+    }
+
+    /**
+     * The JMSPriority of the last decoded record.  Like the delivery mode it has to be passed to the send call, since
+     * the provider replaces whatever was set on the message with the producer's own value.
+     */
+    public int getLastPriority() {
+        return lastPriority;
+    }
+
+    /**
+     * The JMSDeliveryMode of the last decoded record, to be passed to the send call like {@link #getLastPriority()}.
+     */
+    public int getLastDeliveryMode() {
+        return lastDeliveryMode;
+    }
+
+    private void writeProperties(Message message) throws JMSException, IOException {
+        int count = 0;
+        Enumeration<?> names = message.getPropertyNames();
+        while (names.hasMoreElements()) {
+            names.nextElement();
+            count++;
+        }
+        out.writeInt(count);
+        names = message.getPropertyNames();
+        while (names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            Object value = message.getObjectProperty(name);
+            writeString(name);
+            if (value instanceof Boolean) {
+                out.writeByte(PROPERTY_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(PROPERTY_BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Short) {
+                out.writeByte(PROPERTY_SHORT);
+                out.writeShort((Short) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(PROPERTY_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(PROPERTY_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(PROPERTY_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                out.writeByte(PROPERTY_DOUBLE);
+                out.writeDouble((Double) value);
+            } else {
+                out.writeByte(PROPERTY_STRING);
+                writeString(value != null ? value.toString() : null);
+            }
+        }
+    }
+
+    private void writeBody(Message message) throws JMSException, IOException {
+        if (message instanceof TextMessage) {
+            out.writeByte(BODY_TEXT);
+            writeString(((TextMessage) message).getText());
+        } else if (message instanceof BytesMessage) {
+            BytesMessage bytesMessage = (BytesMessage) message;
+            int length = (int) bytesMessage.getBodyLength();
+            if (bodyBuffer.length < length) {
+                bodyBuffer = new byte[length];
+            }
+            bytesMessage.reset();
+            bytesMessage.readBytes(bodyBuffer, length);
+            bytesMessage.reset();
+            out.writeByte(BODY_BYTES);
+            out.writeInt(length);
+            out.write(bodyBuffer, 0, length);
+        } else {
+            out.writeByte(BODY_NONE);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        //writeUTF is limited to 64KB which text bodies can easily exceed
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private Object readProperty(ByteBuffer record) {
+        byte propertyType = record.get();
+        switch (propertyType) {
+            case PROPERTY_BOOLEAN:
+                return record.get() != 0;
+            case PROPERTY_BYTE:
+                return record.get();
+            case PROPERTY_SHORT:
+                return record.getShort();
+            case PROPERTY_INT:
+                return record.getInt();
+            case PROPERTY_LONG:
+                return record.getLong();
+            case PROPERTY_FLOAT:
+                return record.getFloat();
+            case PROPERTY_DOUBLE:
+                return record.getDouble();
+            default:
+                return readString(record);
+        }
+    }
+
+    private String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(readBytes(record, length), 0, length, StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes(ByteBuffer record, int length) {
+        if (bodyBuffer.length < length) {
+            bodyBuffer = new byte[length];
+        }
+        record.get(bodyBuffer, 0, length);
+        return bodyBuffer;
+    }
+
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+/**
+ * Set of message IDs kept as 64-bit hashes in an open-addressing table, so remembering a million browsed messages
+ * costs a few megabytes instead of a million strings.  Two IDs with the same 64-bit hash are treated as the same
+ * message; at these sizes the chance of that is negligible for a load testing tool.
+ */
+public class MessageIdSet {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] slots = new long[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Adds the ID and returns true if it was not already in the set.
+     */
+    public boolean add(String messageId) {
+        //Zero marks an empty slot so the one hash that is really zero is moved aside
+        long hash = hash(messageId);
+        if (hash == 0) {
+            hash = 1;
+        }
+        if ((size + 1) * 2 > slots.length) {
+            resize();
+        }
+        if (!insert(slots, hash)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize() {
+        long[] resized = new long[slots.length * 2];
+        for (long hash : slots) {
+            if (hash != 0) {
+                insert(resized, hash);
+            }
+        }
+        slots = resized;
+    }
+
+    private static boolean insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == hash) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = hash;
+        return true;
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters followed by a finalizer so that IDs differing only in a trailing sequence
+     * number still spread across the whole table.
+     */
+    static long hash(String messageId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < messageId.length(); i++) {
+            hash ^= messageId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+/**
+ * Names of the message properties that ProducerTool stamps and ConsumerTool reads.
+ */
+public final class MessageProperties {
+    /** Producer send time in microseconds from {@link WallClock} */
+    public static final String SEND_TIME_MICROS = "JmsToolsSendTimeMicros";
+
+    /** Sequence of the message within its group, counted separately by each sending session */
+    public static final String GROUP_SEQUENCE = "JmsToolsGroupSeq";
+
+    /** Unique ID of the sending session that numbered {@link #GROUP_SEQUENCE} */
+    public static final String GROUP_SENDER = "JmsToolsGroupSender";
+
+    /** Unique ID of the producer that numbered {@link #PRODUCER_SEQUENCE} */
+    public static final String PRODUCER_ID = "JmsToolsProducerId";
+
+    /** Sequence of the message among everything its producer sent, starting at 1 */
+    public static final String PRODUCER_SEQUENCE = "JmsToolsProducerSeq";
+
+    /** Codec the body of a bytes message was compressed with, absent when it was not compressed */
+    public static final String CODEC = "JmsToolsCodec";
+
+    /** Length of a compressed body before compression */
+    public static final String UNCOMPRESSED_LENGTH = "JmsToolsUncompressedLength";
+
+    private MessageProperties() {
+    }
+}
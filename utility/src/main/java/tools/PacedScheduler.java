@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop send schedule with a fixed interval between intended send times.  The schedule is anchored to the
+ * start time rather than to the previous send, so a stalled send is followed by back-to-back sends until the
+ * schedule is caught up instead of silently lowering the rate.
+ */
+public class PacedScheduler {
+    //Below this many nanos the wait spins instead of parking since parkNanos resolution is too coarse
+    private static final long SPIN_THRESHOLD_NANOS = 50000L;
+
+    private final long intervalNanos;
+    private long startNanos;
+    private long sequence;
+
+    public PacedScheduler(double messagesPerSecond) {
+        if (messagesPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be greater than zero: " + messagesPerSecond);
+        }
+        this.intervalNanos = Math.max(1L, (long) (1000000000L / messagesPerSecond));
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+        sequence = 0;
+    }
+
+    /**
+     * Waits until the next intended send time and returns it.  If the caller is already behind schedule this
+     * returns immediately with an intended time that is in the past.
+     */
+    public long awaitNext() {
+        long intendedNanos = startNanos + (sequence++ * intervalNanos);
+        awaitNanos(intendedNanos);
+        return intendedNanos;
+    }
+
+    /**
+     * Waits until System.nanoTime reaches the given time, parking for most of the wait and spinning for the rest.
+     */
+    static void awaitNanos(long intendedNanos) {
+        long remaining;
+        while ((remaining = intendedNanos - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Returns the intended time of the next send without waiting for it.
+     */
+    public long peekNext() {
+        return startNanos + (sequence * intervalNanos);
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+}
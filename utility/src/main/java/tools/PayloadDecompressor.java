@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Restores the bodies ProducerTool compressed, picking the codec from the property each message was tagged with.
+ * One instance belongs to each thread that handles messages, since codecs and buffers are reused.
+ */
+public class PayloadDecompressor {
+    private final Map<String, CompressionCodec> codecs = new HashMap<String, CompressionCodec>();
+    private final CompressionStats stats = new CompressionStats();
+    private byte[] compressed = new byte[1024];
+
+    /**
+     * Returns the uncompressed body of a message tagged with a codec and leaves the message ready to be read again.
+     */
+    public byte[] decompress(BytesMessage message, String codecName, boolean measuring) throws JMSException {
+        CompressionCodec codec = codecs.get(codecName);
+        if (codec == null) {
+            if (!CompressionCodec.isValid(codecName)) {
+                throw new JMSException("Unknown compression codec " + codecName);
+            }
+            codec = CompressionCodec.create(codecName);
+            codecs.put(codecName, codec);
+        }
+        int compressedLength = (int) message.getBodyLength();
+        if (compressed.length < compressedLength) {
+            compressed = new byte[compressedLength];
+        }
+        message.readBytes(compressed, compressedLength);
+        message.reset();
+        byte[] body = new byte[message.getIntProperty(MessageProperties.UNCOMPRESSED_LENGTH)];
+        long startNanos = System.nanoTime();
+        try {
+            codec.decompress(compressed, compressedLength, body, body.length);
+        } catch (IOException e) {
+            JMSException jmsException = new JMSException("Could not decompress " + codecName + " body: " + e.getMessage());
+            jmsException.setLinkedException(e);
+            throw jmsException;
+        }
+        if (measuring) {
+            stats.record(body.length, compressedLength, System.nanoTime() - startNanos);
+        }
+        return body;
+    }
+
+    public CompressionStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Immutable set of message bodies built once before sending starts.  The pool is shared by all producer threads and
+ * each thread keeps its own cursor, so picking the next payload allocates nothing and needs no locking.
+ */
+public class PayloadPool {
+    private static final char[] ALPHANUMERIC =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    private final byte[][] bytes;
+    private final String[] texts;
+    private final int[] textLengths;
+
+    private PayloadPool(byte[][] bytes, String[] texts) {
+        this.bytes = bytes;
+        this.texts = texts;
+        //A payload file that is not valid UTF-8 decodes to a text whose encoded length differs from the file's
+        this.textLengths = new int[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            textLengths[i] = Utf8.encodedLength(texts[i]);
+        }
+    }
+
+    /**
+     * A single reusable payload of the given length.
+     */
+    public static PayloadPool fixed(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = ALPHANUMERIC[i % ALPHANUMERIC.length];
+        }
+        return fromTexts(new String[] {new String(chars)});
+    }
+
+    /**
+     * A pool of random alphanumeric payloads of the given length.  The characters are single byte in UTF-8 so the
+     * text and bytes forms have the same length.
+     */
+    public static PayloadPool random(int length, int poolSize, long seed) {
+        Random random = new Random(seed);
+        String[] texts = new String[poolSize];
+        char[] chars = new char[length];
+        for (int p = 0; p < poolSize; p++) {
+            for (int i = 0; i < length; i++) {
+                chars[i] = ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)];
+            }
+            texts[p] = new String(chars);
+        }
+        return fromTexts(texts);
+    }
+
+    /**
+     * Payloads read once from a file, or from every regular file in a directory in name order.
+     */
+    public static PayloadPool fromFiles(File path) throws IOException {
+        List<File> files = new ArrayList<File>();
+        if (path.isDirectory()) {
+            File[] children = path.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.isFile()) {
+                        files.add(child);
+                    }
+                }
+            }
+        } else {
+            files.add(path);
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No payload files found at " + path);
+        }
+
+        byte[][] bytes = new byte[files.size()][];
+        String[] texts = new String[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            bytes[i] = Files.readAllBytes(files.get(i).toPath());
+            texts[i] = new String(bytes[i], StandardCharsets.UTF_8);
+        }
+        return new PayloadPool(bytes, texts);
+    }
+
+    private static PayloadPool fromTexts(String[] texts) {
+        byte[][] bytes = new byte[texts.length][];
+        for (int i = 0; i < texts.length; i++) {
+            bytes[i] = texts[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return new PayloadPool(bytes, texts);
+    }
+
+    public int size() {
+        return bytes.length;
+    }
+
+    public byte[] bytesAt(int index) {
+        return bytes[index];
+    }
+
+    public String textAt(int index) {
+        return texts[index];
+    }
+
+    /**
+     * The UTF-8 encoded length of {@link #textAt}, which is how the tools count the size of a text message.
+     */
+    public int textLengthAt(int index) {
+        return textLengths[index];
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Context;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs ConsumerTool and ProducerTool in one JVM for a loopback benchmark, as a single {@link Phase}.  Both tools read
+ * the same {@link WallClock} so end-to-end latency is measured against a single monotonic clock, and one combined
+ * report is logged once the traffic has drained.
+ */
+public class PerfTool {
+    static Logger LOGGER = LoggerFactory.getLogger(PerfTool.class);
+    private static final String ACTIVEMQ_CONTEXT_FACTORY = "org.apache.activemq.jndi.ActiveMQInitialContextFactory";
+    //Non-persistent so the run leaves nothing behind, and created by the first connection that uses it
+    static final String EMBEDDED_BROKER_URL = "vm://perftool?broker.persistent=false&broker.useJmx=false";
+
+    private String connectionFactoryName = null; //f
+    private String destinationName = null; //n
+    private boolean useQueueDestinations = false; //q
+    private String producerArgs = ""; //--producer-args
+    private String consumerArgs = ""; //--consumer-args
+    private boolean embeddedBroker = false; //--embedded-broker
+    private long drainIdleMS = 1000; //--drain-idle
+    private int subscribeTimeoutSeconds = 30; //--subscribe-timeout
+
+    public static void main(String[] args) throws Exception {
+        LOGGER.info("Starting PerfTool");
+        PerfTool perfTool = new PerfTool();
+        perfTool.parseCommandLine(args);
+        perfTool.logInternalState();
+        perfTool.validateInternalState();
+        perfTool.setupProvider();
+        perfTool.execute();
+    }
+
+    /**
+     * Points JNDI at an in-process broker.  System properties take precedence over jndi.properties, so the connection
+     * factory names configured there still apply.
+     */
+    public void setupProvider() {
+        if (embeddedBroker) {
+            useEmbeddedBroker();
+        }
+    }
+
+    static void useEmbeddedBroker() {
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, ACTIVEMQ_CONTEXT_FACTORY);
+        System.setProperty(Context.PROVIDER_URL, EMBEDDED_BROKER_URL);
+        LOGGER.info("Using embedded broker at {}", EMBEDDED_BROKER_URL);
+    }
+
+    public void execute() throws Exception {
+        List<String> sharedArgs = new ArrayList<String>();
+        if (connectionFactoryName != null) {
+            sharedArgs.add("-f");
+            sharedArgs.add(connectionFactoryName);
+        }
+        if (destinationName != null) {
+            sharedArgs.add("-n");
+            sharedArgs.add(destinationName);
+        }
+        if (useQueueDestinations) {
+            sharedArgs.add("-q");
+        }
+        Phase phase = new Phase("PerfTool", Phase.toolArgs(sharedArgs, producerArgs),
+                Phase.toolArgs(sharedArgs, consumerArgs), 0, drainIdleMS, subscribeTimeoutSeconds);
+        phase.execute();
+        phase.logResults(LOGGER);
+    }
+
+    public void parseCommandLine(String[] args) {
+        CommandLineParser parser = new PosixParser();
+
+        Options options = new Options();
+
+        Option connFactOpt = OptionBuilder.withLongOpt("connection-factory-name")
+                .withArgName("name")
+                .hasArg()
+                .withDescription("name of the connection factory to lookup, passed to both tools")
+                .create("f");
+        options.addOption(connFactOpt);
+
+        Option helpOpt = OptionBuilder.withLongOpt("help")
+                .withDescription("show help")
+                .create("h");
+        options.addOption(helpOpt);
+
+        Option destNameOpt = OptionBuilder.withLongOpt("destination-name")
+                .withArgName("name")
+                .hasArg()
+                .withDescription("name or pattern of the destinations, passed to both tools")
+                .create("n");
+        options.addOption(destNameOpt);
+
+        Option useQueueOpt = OptionBuilder.withLongOpt("queue-destination")
+                .withDescription("use queues instead of topics, passed to both tools")
+                .create("q");
+        options.addOption(useQueueOpt);
+
+        Option producerArgsOpt = OptionBuilder.withLongOpt("producer-args")
+                .withArgName("args")
+                .hasArg()
+                .withDescription("ProducerTool arguments in one quoted string, such as \"-m 100000 -l 1024\"")
+                .create();
+        options.addOption(producerArgsOpt);
+
+        Option consumerArgsOpt = OptionBuilder.withLongOpt("consumer-args")
+                .withArgName("args")
+                .hasArg()
+                .withDescription("ConsumerTool arguments in one quoted string; its -m limit is ignored since the " +
+                        "consumers run until the traffic drains")
+                .create();
+        options.addOption(consumerArgsOpt);
+
+        Option embeddedBrokerOpt = OptionBuilder.withLongOpt("embedded-broker")
+                .withDescription("run against a non-persistent ActiveMQ broker inside this JVM instead of the " +
+                        "provider in jndi.properties")
+                .create();
+        options.addOption(embeddedBrokerOpt);
+
+        Option drainIdleOpt = OptionBuilder.withLongOpt("drain-idle")
+                .withArgName("millis")
+                .hasArg()
+                .withDescription("once the producers finish, stop the consumers after this long without a message")
+                .create();
+        options.addOption(drainIdleOpt);
+
+        Option subscribeTimeoutOpt = OptionBuilder.withLongOpt("subscribe-timeout")
+                .withArgName("seconds")
+                .hasArg()
+                .withDescription("how long to wait for the consumers to subscribe before giving up")
+                .create();
+        options.addOption(subscribeTimeoutOpt);
+
+        try {
+            // parse the command line arguments
+            CommandLine line = parser.parse(options, args);
+
+            if (line.hasOption("h")) {
+                // automatically generate the help statement
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp("PerfTool", options, true);
+                System.exit(0);
+            }
+
+            if(line.hasOption("f")) {
+                connectionFactoryName = line.getOptionValue("f");
+            }
+
+            if(line.hasOption("n")) {
+                destinationName = line.getOptionValue("n");
+            }
+
+            if(line.hasOption("q")) {
+                useQueueDestinations = true;
+            }
+
+            if(line.hasOption("producer-args")) {
+                producerArgs = line.getOptionValue("producer-args");
+            }
+
+            if(line.hasOption("consumer-args")) {
+                consumerArgs = line.getOptionValue("consumer-args");
+            }
+
+            if(line.hasOption("embedded-broker")) {
+                embeddedBroker = true;
+            }
+
+            if(line.hasOption("drain-idle")) {
+                drainIdleMS = Long.parseLong(line.getOptionValue("drain-idle"));
+            }
+
+            if(line.hasOption("subscribe-timeout")) {
+                subscribeTimeoutSeconds = Integer.parseInt(line.getOptionValue("subscribe-timeout"));
+            }
+        } catch (ParseException exp) {
+            LOGGER.error("Commandline parsing exception: " + exp.getMessage(), exp);
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("PerfTool", options, true);
+            System.exit(-1);
+        }
+    }
+
+    public void logInternalState() {
+        LOGGER.info("Internal state: connectionFactoryName = {}, destinationName = {}, useQueueDestinations = {}, " +
+                "producerArgs = {}, consumerArgs = {}, embeddedBroker = {}, drainIdleMS = {}, subscribeTimeoutSeconds = {}",
+                new Object[] {connectionFactoryName, destinationName, useQueueDestinations, producerArgs, consumerArgs,
+                        embeddedBroker, drainIdleMS, subscribeTimeoutSeconds});
+    }
+
+    private void validateInternalState() throws Exception {
+        if(drainIdleMS <= 0) {
+            throw new Exception("Cannot set drainIdleMS to zero or less");
+        }
+        if(subscribeTimeoutSeconds <= 0) {
+            throw new Exception("Cannot set subscribeTimeoutSeconds to zero or less");
+        }
+    }
+}
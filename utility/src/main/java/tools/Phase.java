@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One stretch of loopback load: a ConsumerTool and a ProducerTool run in this JVM, either of which may be left out.
+ * Producers only start once every consumer has subscribed.  Consumers are stopped when the phase duration is over,
+ * or, when there is no duration, once deliveries have gone quiet.
+ */
+public class Phase {
+    private static final long DRAIN_POLL_MS = 10;
+
+    private final String name;
+    private final String[] producerArgs;
+    private final String[] consumerArgs;
+    private final int durationSeconds;
+    private final long drainIdleMS;
+    private final int subscribeTimeoutSeconds;
+
+    private long sentMessages;
+    private long receivedMessages;
+    private long producedNanos;
+    private long receivedNanos;
+    private Histogram latencyHistogram = Histograms.create();
+    private GroupTracker groupTracker;
+    private SequenceTracker sequenceTracker;
+
+    /**
+     * @param producerArgs ProducerTool arguments, or null for a phase without producers
+     * @param consumerArgs ConsumerTool arguments, or null for a phase without consumers
+     * @param durationSeconds how long the phase sends or, without producers, receives for; zero leaves it to the
+     *                        producers' own limits or to the drain
+     */
+    public Phase(String name, String[] producerArgs, String[] consumerArgs, int durationSeconds, long drainIdleMS,
+                 int subscribeTimeoutSeconds) {
+        this.name = name;
+        this.producerArgs = producerArgs;
+        this.consumerArgs = consumerArgs;
+        this.durationSeconds = durationSeconds;
+        this.drainIdleMS = drainIdleMS;
+        this.subscribeTimeoutSeconds = subscribeTimeoutSeconds;
+    }
+
+    /**
+     * Splits a tool argument string on whitespace, after the arguments shared by every tool.
+     */
+    public static String[] toolArgs(List<String> sharedArgs, String args) {
+        List<String> toolArgs = new ArrayList<String>(sharedArgs);
+        if (!args.trim().isEmpty()) {
+            toolArgs.addAll(Arrays.asList(args.trim().split("\\s+")));
+        }
+        return toolArgs.toArray(new String[toolArgs.size()]);
+    }
+
+    public void execute() throws Exception {
+        ConsumerTool consumerTool = null;
+        ProducerTool producerTool = null;
+        if (consumerArgs != null) {
+            consumerTool = new ConsumerTool();
+            consumerTool.setRunUntilStopped(true);
+            consumerTool.configure(consumerArgs);
+        }
+        if (producerArgs != null) {
+            producerTool = new ProducerTool();
+            producerTool.configure(withDuration(producerArgs));
+        }
+
+        final AtomicReference<Exception> consumerFailure = new AtomicReference<Exception>();
+        Thread consumerThread = null;
+        if (consumerTool != null) {
+            final ConsumerTool consumers = consumerTool;
+            consumerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        consumers.execute();
+                    } catch (Exception e) {
+                        consumerFailure.set(e);
+                    }
+                }
+            }, name + "-consumer");
+            consumerThread.start();
+            if (!consumerTool.awaitSubscribed(subscribeTimeoutSeconds, TimeUnit.SECONDS)) {
+                consumerTool.stop();
+                consumerThread.join();
+                throw new Exception("Consumers of phase " + name + " did not subscribe within " +
+                        subscribeTimeoutSeconds + " seconds");
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        if (producerTool != null) {
+            producerTool.execute();
+            sentMessages = producerTool.getThroughputReporter().getTotalMessages();
+            producedNanos = System.nanoTime() - startNanos;
+        }
+        if (consumerTool != null) {
+            long lastArrivalNanos = awaitConsumersDone(consumerTool.getThroughputReporter(), producerTool == null,
+                    startNanos);
+            receivedNanos = lastArrivalNanos - startNanos;
+            consumerTool.stop();
+            consumerThread.join();
+            if (consumerFailure.get() != null) {
+                throw consumerFailure.get();
+            }
+            receivedMessages = consumerTool.getThroughputReporter().getTotalMessages();
+            latencyHistogram = consumerTool.getLatencyTracker().getTotalHistogram();
+            groupTracker = consumerTool.getGroupTracker();
+            sequenceTracker = consumerTool.getSequenceTracker();
+        }
+    }
+
+    /**
+     * Returns when the last message arrived.  Fan-out and warmup make the expected count unknowable here, so without
+     * a receive-only duration the consumers are done once deliveries go quiet.
+     */
+    private long awaitConsumersDone(ThroughputReporter consumerThroughput, boolean receiveOnly, long startNanos)
+            throws InterruptedException {
+        long endNanos = receiveOnly && durationSeconds > 0 ? startNanos + TimeUnit.SECONDS.toNanos(durationSeconds) : 0;
+        long received = consumerThroughput.getTotalMessages();
+        long lastArrivalNanos = System.nanoTime();
+        while (endNanos != 0 ? System.nanoTime() - endNanos < 0
+                : System.nanoTime() - lastArrivalNanos < TimeUnit.MILLISECONDS.toNanos(drainIdleMS)) {
+            Thread.sleep(DRAIN_POLL_MS);
+            long current = consumerThroughput.getTotalMessages();
+            if (current != received) {
+                received = current;
+                lastArrivalNanos = System.nanoTime();
+            }
+        }
+        return endNanos != 0 ? System.nanoTime() : lastArrivalNanos;
+    }
+
+    private String[] withDuration(String[] args) {
+        if (durationSeconds <= 0) {
+            return args;
+        }
+        String[] timed = Arrays.copyOf(args, args.length + 2);
+        timed[args.length] = "--duration";
+        timed[args.length + 1] = Integer.toString(durationSeconds);
+        return timed;
+    }
+
+    public void logResults(Logger logger) {
+        logger.info("Phase {} sent {} messages in {} ms ({} msgs/s) and received {} messages in {} ms ({} msgs/s)",
+                new Object[] {name, sentMessages, TimeUnit.NANOSECONDS.toMillis(producedNanos),
+                        Rates.perSecond(sentMessages, producedNanos), receivedMessages,
+                        TimeUnit.NANOSECONDS.toMillis(receivedNanos), Rates.perSecond(receivedMessages, receivedNanos)});
+        Histograms.log(logger, "Phase " + name + " end-to-end latency", latencyHistogram);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSentMessages() {
+        return sentMessages;
+    }
+
+    public long getReceivedMessages() {
+        return receivedMessages;
+    }
+
+    /**
+     * The consumers' group checks, or null unless they ran with --track-groups.
+     */
+    public GroupTracker getGroupTracker() {
+        return groupTracker;
+    }
+
+    /**
+     * The consumers' sequence checks, or null unless they ran with --verify-sequences.
+     */
+    public SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+
+    /**
+     * Messages per second sent by the producers, or zero for a phase without them.
+     */
+    public long getSendRate() {
+        return Rates.perSecond(sentMessages, producedNanos);
+    }
+
+    /**
+     * Messages per second received by the consumers, from the start of the phase to the last arrival.
+     */
+    public long getReceiveRate() {
+        return Rates.perSecond(receivedMessages, receivedNanos);
+    }
+}
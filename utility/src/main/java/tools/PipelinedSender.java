@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.activemq.ActiveMQMessageProducer;
+import org.apache.activemq.AsyncCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends without waiting for the broker round trip while keeping at most a fixed number of sends outstanding.  The
+ * JMS 1.1 API has no completion callback so this relies on the ActiveMQ client's {@link AsyncCallback} sends.
+ */
+public class PipelinedSender {
+    static Logger LOGGER = LoggerFactory.getLogger(PipelinedSender.class);
+
+    private final ActiveMQMessageProducer producer;
+    private final int window;
+    private final Semaphore inFlight;
+    private final Recorder completionRecorder = new Recorder(3);
+    private final Recorder liveRecorder;
+    private final AtomicLong failures = new AtomicLong();
+
+    public PipelinedSender(MessageProducer producer, int window) throws JMSException {
+        this(producer, window, null);
+    }
+
+    /**
+     * @param liveRecorder also records every completion latency, for readers that sample while the run is going,
+     *                     or null
+     */
+    public PipelinedSender(MessageProducer producer, int window, Recorder liveRecorder) throws JMSException {
+        if (!(producer instanceof ActiveMQMessageProducer)) {
+            throw new JMSException("Pipelined sends are only supported with the ActiveMQ client, not " +
+                    producer.getClass().getName());
+        }
+        this.producer = (ActiveMQMessageProducer) producer;
+        this.window = window;
+        this.inFlight = new Semaphore(window);
+        this.liveRecorder = liveRecorder;
+    }
+
+    /**
+     * Blocks only while the window is full and then hands the message to the client without waiting for the
+     * broker to acknowledge it.
+     */
+    public void send(Message message) throws JMSException, InterruptedException {
+        send(null, message);
+    }
+
+    /**
+     * Sends to the given destination through an unbound producer, or to the producer's own destination when null.
+     */
+    public void send(Destination destination, Message message) throws JMSException, InterruptedException {
+        send(destination, message, producer.getDeliveryMode(), producer.getPriority());
+    }
+
+    /**
+     * Sends with the given delivery mode and priority instead of the producer's, such as those of a replayed message.
+     */
+    public void send(Destination destination, Message message, int deliveryMode, int priority)
+            throws JMSException, InterruptedException {
+        inFlight.acquire();
+        final long sendStartNanos = System.nanoTime();
+        try {
+            AsyncCallback callback = new AsyncCallback() {
+                @Override
+                public void onSuccess() {
+                    complete(sendStartNanos);
+                }
+
+                @Override
+                public void onException(JMSException exception) {
+                    failures.incrementAndGet();
+                    LOGGER.error("Pipelined send failed: " + exception.getMessage(), exception);
+                    complete(sendStartNanos);
+                }
+            };
+            if (destination != null) {
+                producer.send(destination, message, deliveryMode, priority, Message.DEFAULT_TIME_TO_LIVE, callback);
+            } else {
+                producer.send(message, deliveryMode, priority, Message.DEFAULT_TIME_TO_LIVE, callback);
+            }
+        } catch (JMSException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void complete(long sendStartNanos) {
+        long completionNanos = System.nanoTime() - sendStartNanos;
+        Histograms.recordNanos(completionRecorder, completionNanos);
+        if (liveRecorder != null) {
+            Histograms.recordNanos(liveRecorder, completionNanos);
+        }
+        inFlight.release();
+    }
+
+    /**
+     * Waits for every outstanding send to complete.
+     */
+    public void drain() throws InterruptedException {
+        inFlight.acquire(window);
+        inFlight.release(window);
+    }
+
+    /**
+     * Waits for the sends already in flight and then discards their completion latencies, so that sends made during
+     * a warmup are not counted in the measured phase.
+     */
+    public void resetCompletionHistogram() throws InterruptedException {
+        drain();
+        completionRecorder.reset();
+    }
+
+    /**
+     * Returns the completion latencies recorded since the last call or reset.  Only meaningful after {@link #drain()}.
+     */
+    public Histogram getCompletionHistogram() {
+        return completionRecorder.getIntervalHistogram();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+}
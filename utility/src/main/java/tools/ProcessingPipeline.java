@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The processing stages of one consumer thread, run in order on every message with the time of each stage recorded
+ * in nanoseconds.  A message whose stage fails still goes through the remaining stages, and only the first failure
+ * of each stage is logged so a stage that rejects every body does not flood the console.
+ */
+public class ProcessingPipeline {
+    static Logger LOGGER = LoggerFactory.getLogger(ProcessingPipeline.class);
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private final List<String> specs;
+    private final ProcessingStage[] stages;
+    private final Histogram[] stageHistograms;
+    private final long[] stageFailures;
+    private final Histogram totalHistogram = Histograms.create();
+    private long sink;
+
+    private ProcessingPipeline(List<String> specs, ProcessingStage[] stages) {
+        this.specs = specs;
+        this.stages = stages;
+        this.stageHistograms = new Histogram[stages.length];
+        this.stageFailures = new long[stages.length];
+        for (int s = 0; s < stages.length; s++) {
+            stageHistograms[s] = Histograms.create();
+        }
+    }
+
+    /**
+     * Splits a comma separated list of stage specs such as "checksum,json,spin:200".
+     */
+    public static List<String> parseSpecs(String value) {
+        List<String> specs = new ArrayList<String>();
+        for (String spec : value.split(",")) {
+            if (!spec.trim().isEmpty()) {
+                specs.add(spec.trim());
+            }
+        }
+        return specs;
+    }
+
+    public static ProcessingPipeline create(List<String> specs) throws Exception {
+        ProcessingStage[] stages = new ProcessingStage[specs.size()];
+        for (int s = 0; s < stages.length; s++) {
+            stages[s] = ProcessingStages.create(specs.get(s));
+        }
+        return new ProcessingPipeline(specs, stages);
+    }
+
+    /**
+     * Runs every stage on the message and returns false if any of them failed.  Timings are only recorded when
+     * measuring so that warmup is left out.
+     *
+     * @param body the body when the caller has already read it, such as after decompressing, or null to read it here
+     */
+    public boolean process(Message message, byte[] body, boolean measuring) throws JMSException {
+        long startNanos = System.nanoTime();
+        if (body == null) {
+            body = readBody(message);
+        }
+        boolean succeeded = true;
+        long stageStartNanos = System.nanoTime();
+        for (int s = 0; s < stages.length; s++) {
+            try {
+                sink ^= stages[s].process(message, body);
+            } catch (Exception e) {
+                succeeded = false;
+                if (stageFailures[s]++ == 0) {
+                    LOGGER.error("Processing stage " + specs.get(s) + " failed, later failures are only counted: "
+                            + e.getMessage(), e);
+                }
+            }
+            long stageEndNanos = System.nanoTime();
+            if (measuring) {
+                stageHistograms[s].recordValue(stageEndNanos - stageStartNanos);
+            }
+            stageStartNanos = stageEndNanos;
+        }
+        if (measuring) {
+            totalHistogram.recordValue(stageStartNanos - startNanos);
+        }
+        return succeeded;
+    }
+
+    private static byte[] readBody(Message message) throws JMSException {
+        if (message instanceof TextMessage) {
+            String text = ((TextMessage) message).getText();
+            return text != null ? text.getBytes(StandardCharsets.UTF_8) : EMPTY_BODY;
+        }
+        if (message instanceof BytesMessage) {
+            BytesMessage bytesMessage = (BytesMessage) message;
+            byte[] body = new byte[(int) bytesMessage.getBodyLength()];
+            bytesMessage.readBytes(body);
+            //Later readers such as the recorder expect to find the body unread
+            bytesMessage.reset();
+            return body;
+        }
+        return EMPTY_BODY;
+    }
+
+    List<String> getSpecs() {
+        return specs;
+    }
+
+    Histogram getStageHistogram(int stage) {
+        return stageHistograms[stage];
+    }
+
+    long getStageFailures(int stage) {
+        return stageFailures[stage];
+    }
+
+    Histogram getTotalHistogram() {
+        return totalHistogram;
+    }
+
+    /**
+     * A value derived from every stage result, only here so the JIT has to keep the work.
+     */
+    public long getSink() {
+        return sink;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded set of single threaded workers that message processing can be handed to, so the provider's dispatch
+ * thread only has to receive.  Messages with the same JMSXGroupID always go to the same worker, which keeps them in
+ * order; ungrouped messages are spread round robin.  A full worker queue blocks the caller, which pushes back on
+ * dispatch instead of buffering without limit.
+ */
+public class ProcessingPool {
+    private final ThreadPoolExecutor[] workers;
+    private int nextWorker;
+
+    public ProcessingPool(final String name, int numWorkers, int queueSize) {
+        workers = new ThreadPoolExecutor[numWorkers];
+        for (int w = 0; w < numWorkers; w++) {
+            final String workerName = name + "/worker-" + w;
+            workers[w] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, workerName);
+                }
+            }, new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Processing worker " + workerName + " is shut down");
+                    }
+                    try {
+                        executor.getQueue().put(r);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted waiting for processing worker " + workerName, e);
+                    }
+                }
+            });
+        }
+    }
+
+    public int size() {
+        return workers.length;
+    }
+
+    /**
+     * Picks the worker for a message.  Not thread safe, so it must only be called from the session's dispatch thread.
+     */
+    public int chooseWorker(String groupId) {
+        if (groupId != null) {
+            return (groupId.hashCode() & Integer.MAX_VALUE) % workers.length;
+        }
+        nextWorker = (nextWorker + 1) % workers.length;
+        return nextWorker;
+    }
+
+    public void submit(int worker, Runnable task) {
+        workers[worker].execute(task);
+    }
+
+    /**
+     * Lets every queued message finish processing and stops the workers.
+     */
+    public void shutdownAndAwait() throws InterruptedException {
+        for (ThreadPoolExecutor worker : workers) {
+            worker.shutdown();
+        }
+        for (ThreadPoolExecutor worker : workers) {
+            worker.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+    }
+}
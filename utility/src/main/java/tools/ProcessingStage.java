@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import javax.jms.Message;
+
+/**
+ * One step of the work ConsumerTool does for every message, chosen with --processing-stages.  Each processing thread
+ * gets its own instance, so a stage may keep buffers and parsers between messages without locking.  Stages other
+ * than the built-in ones in {@link ProcessingStages} are named by class name and need a public no-argument
+ * constructor.
+ */
+public interface ProcessingStage {
+    /**
+     * Called once before the first message with the text after the colon in the stage's spec, or null if it had none.
+     */
+    void init(String argument) throws Exception;
+
+    /**
+     * Processes one message.  The body is the text as UTF-8 or the bytes of a BytesMessage after any decompression,
+     * and is empty for other message types.  The returned value is derived from the work so the JIT cannot optimize it away.
+     */
+    long process(Message message, byte[] body) throws Exception;
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.jms.Message;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The built-in {@link ProcessingStage}s and the lookup from a stage spec such as "spin:200" to a new stage.  Each
+ * built-in models a kind of CPU cost found in real consumers, so that the tool can show whether adding consumers is
+ * limited by the broker or by the processing.
+ */
+public final class ProcessingStages {
+    private ProcessingStages() {
+    }
+
+    /**
+     * Creates and initializes the stage for a spec of the form name[:argument], where the name is one of checksum,
+     * json, xml, compress or spin, or the class name of a custom stage.
+     */
+    public static ProcessingStage create(String spec) throws Exception {
+        int colon = spec.indexOf(':');
+        String name = colon >= 0 ? spec.substring(0, colon) : spec;
+        String argument = colon >= 0 ? spec.substring(colon + 1) : null;
+        ProcessingStage stage;
+        if (name.equalsIgnoreCase("checksum")) {
+            stage = new Checksum();
+        } else if (name.equalsIgnoreCase("json")) {
+            stage = new JsonParse();
+        } else if (name.equalsIgnoreCase("xml")) {
+            stage = new XmlParse();
+        } else if (name.equalsIgnoreCase("compress")) {
+            stage = new CompressionRoundTrip();
+        } else if (name.equalsIgnoreCase("spin")) {
+            stage = new BusySpin();
+        } else {
+            Class<?> stageClass = Class.forName(name);
+            if (!ProcessingStage.class.isAssignableFrom(stageClass)) {
+                throw new IllegalArgumentException(name + " does not implement " + ProcessingStage.class.getName());
+            }
+            try {
+                stage = (ProcessingStage) stageClass.getDeclaredConstructor().newInstance();
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(name + " has no no-argument constructor", e);
+            } catch (InvocationTargetException e) {
+                //Surface what the stage's own constructor threw rather than the reflection wrapper
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        stage.init(argument);
+        return stage;
+    }
+
+    /**
+     * CRC32 of the body, the cost of verifying a payload's integrity.
+     */
+    public static class Checksum implements ProcessingStage {
+        private final CRC32 crc = new CRC32();
+
+        @Override
+        public void init(String argument) {
+        }
+
+        @Override
+        public long process(Message message, byte[] body) {
+            crc.reset();
+            crc.update(body, 0, body.length);
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * Parses the body as JSON without building objects, the tokenizing cost a data binding library pays before it
+     * allocates anything.  Fails on a body that is not JSON, so it is meant for payloads loaded from files.
+     */
+    public static class JsonParse implements ProcessingStage {
+        private byte[] json;
+        private int position;
+        private long values;
+
+        @Override
+        public void init(String argument) {
+        }
+
+        @Override
+        public long process(Message message, byte[] body) {
+            json = body;
+            position = 0;
+            values = 0;
+            skipWhitespace();
+            parseValue();
+            skipWhitespace();
+            if (position != json.length) {
+                throw malformed();
+            }
+            return values;
+        }
+
+        private void parseValue() {
+            values++;
+            if (position >= json.length) {
+                throw malformed();
+            }
+            byte b = json[position];
+            if (b == '{') {
+                position++;
+                parseMembers();
+            } else if (b == '[') {
+                position++;
+                parseElements();
+            } else if (b == '"') {
+                parseString();
+            } else if (b == 't') {
+                expectLiteral("true");
+            } else if (b == 'f') {
+                expectLiteral("false");
+            } else if (b == 'n') {
+                expectLiteral("null");
+            } else {
+                parseNumber();
+            }
+        }
+
+        private void parseMembers() {
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                parseString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                parseValue();
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect('}');
+                    return;
+                }
+            }
+        }
+
+        private void parseElements() {
+            skipWhitespace();
+            if (peek() == ']') {
+                position++;
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                parseValue();
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect(']');
+                    return;
+                }
+            }
+        }
+
+        private void parseString() {
+            expect('"');
+            while (position < json.length) {
+                byte b = json[position++];
+                if (b == '"') {
+                    return;
+                }
+                if (b == '\\') {
+                    if (position >= json.length) {
+                        break;
+                    }
+                    //Only the four hex digits of a unicode escape span more than one byte
+                    position += json[position] == 'u' ? 5 : 1;
+                }
+            }
+            throw malformed();
+        }
+
+        private void parseNumber() {
+            int start = position;
+            while (position < json.length) {
+                byte b = json[position];
+                if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                    position++;
+                } else {
+                    break;
+                }
+            }
+            if (position == start) {
+                throw malformed();
+            }
+        }
+
+        private void expectLiteral(String literal) {
+            for (int i = 0; i < literal.length(); i++) {
+                expect(literal.charAt(i));
+            }
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw malformed();
+            }
+            position++;
+        }
+
+        private int peek() {
+            return position < json.length ? json[position] : -1;
+        }
+
+        private void skipWhitespace() {
+            while (position < json.length) {
+                byte b = json[position];
+                if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        private IllegalArgumentException malformed() {
+            return new IllegalArgumentException("Malformed JSON at byte " + position);
+        }
+    }
+
+    /**
+     * Parses the body as XML with the JDK's SAX parser and counts its elements.  Fails on a body that is not XML, so
+     * it is meant for payloads loaded from files.  Doctypes are refused so a payload cannot pull in external entities.
+     */
+    public static class XmlParse implements ProcessingStage {
+        private SAXParser parser;
+        private final ElementCounter counter = new ElementCounter();
+
+        @Override
+        public void init(String argument) throws Exception {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            parser = factory.newSAXParser();
+        }
+
+        @Override
+        public long process(Message message, byte[] body) throws Exception {
+            counter.elements = 0;
+            try {
+                parser.parse(new ByteArrayInputStream(body), counter);
+            } finally {
+                parser.reset();
+            }
+            return counter.elements;
+        }
+
+        private static class ElementCounter extends DefaultHandler {
+            long elements;
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                elements++;
+            }
+        }
+    }
+
+    /**
+     * Deflates the body and inflates it back, the cost of a consumer that receives compressed payloads.  The
+     * optional argument is the deflate level from 0 to 9 and defaults to 6.
+     */
+    public static class CompressionRoundTrip implements ProcessingStage {
+        private Deflater deflater;
+        private final Inflater inflater = new Inflater();
+        private byte[] compressed = new byte[1024];
+        private byte[] restored = new byte[1024];
+
+        @Override
+        public void init(String argument) {
+            int level = argument != null ? Integer.parseInt(argument) : 6;
+            if (level < 0 || level > 9) {
+                throw new IllegalArgumentException("Deflate level must be from 0 to 9, not " + level);
+            }
+            deflater = new Deflater(level);
+        }
+
+        @Override
+        public long process(Message message, byte[] body) throws Exception {
+            //Deflate can grow incompressible input slightly so leave room for its block overhead
+            int bound = body.length + body.length / 1000 + 64;
+            if (compressed.length < bound) {
+                compressed = new byte[bound];
+            }
+            if (restored.length < body.length) {
+                restored = new byte[body.length];
+            }
+            deflater.reset();
+            deflater.setInput(body, 0, body.length);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+            int restoredLength = inflater.inflate(restored, 0, body.length);
+            if (restoredLength != body.length || !inflater.finished()) {
+                throw new IllegalStateException("Inflated " + restoredLength + " bytes from a " + body.length + " byte body");
+            }
+            return compressedLength;
+        }
+    }
+
+    /**
+     * Keeps the CPU busy for the number of microseconds given as the argument, a stand-in for business logic whose
+     * cost is known but whose code is not available.  Unlike a sleep it competes with the client threads for CPU.
+     */
+    public static class BusySpin implements ProcessingStage {
+        private long spinNanos;
+
+        @Override
+        public void init(String argument) {
+            if (argument == null) {
+                throw new IllegalArgumentException("spin needs a number of microseconds, for example spin:200");
+            }
+            long spinMicros = Long.parseLong(argument);
+            if (spinMicros < 0) {
+                throw new IllegalArgumentException("Cannot spin for a negative number of microseconds");
+            }
+            spinNanos = TimeUnit.MICROSECONDS.toNanos(spinMicros);
+        }
+
+        @Override
+        public long process(Message message, byte[] body) {
+            long endNanos = System.nanoTime() + spinNanos;
+            long spins = 0;
+            while (System.nanoTime() < endNanos) {
+                spins++;
+            }
+            return spins;
+        }
+    }
+}
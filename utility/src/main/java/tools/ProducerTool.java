@@ -15,6 +15,8 @@
  */
 package tools;
 
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,14 +25,20 @@ import javax.jms.*;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
-import java.nio.charset.StandardCharsets;
-import java.util.Date;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class ProducerTool implements Runnable {
     static Logger LOGGER = LoggerFactory.getLogger(ProducerTool.class);
+    private static final int DEFAULT_TEXT_PAYLOAD_LENGTH = 100;
+    //Above this many sessions the summaries show per-session distributions instead of one line per session
+    private static final int SESSION_LINE_LIMIT = 64;
 
     private int acknowledgeMode = Session.AUTO_ACKNOWLEDGE; //a
     private String clientId = null; //c
@@ -48,6 +56,56 @@ public class ProducerTool implements Runnable {
     private boolean transacted = false; //t
     private String messageGroupId = null; //x
     private int batchSize = 1; //z
+    private long batchBytes = 0; //--batch-bytes
+    private long batchLingerMS = 0; //--batch-linger
+    private long batchTargetCommitMS = 0; //--batch-target-commit
+    private double targetRate = 0; //--target-rate
+    private String payloadMode = "generated"; //--payload-mode
+    private String payloadPath = null; //--payload-path
+    private int payloadPoolSize = 16; //--payload-pool-size
+    private int asyncWindow = 0; //--async-window
+    private int sessionsPerConnection = 1; //--sessions-per-connection
+    private int producersPerSession = 1; //--producers-per-session
+    private int reportIntervalSeconds = 0; //--report-interval
+    private int logEvery = 0; //--log-every
+    private int durationSeconds = 0; //--duration
+    private int warmupSeconds = 0; //--warmup
+    private long totalMessages = 0; //--total-messages
+    private boolean virtualThreads = false; //--virtual-threads
+    private boolean compositeDestination = false; //--composite-destination
+    private String destinationDistribution = "round-robin"; //--destination-distribution
+    private double destinationZipfExponent = 1.0; //--destination-zipf-exponent
+    private String replayPath = null; //--replay
+    private double replaySpeed = 1.0; //--replay-speed
+    private int groupCount = 0; //--group-count
+    private String groupDistribution = "round-robin"; //--group-distribution
+    private double groupZipfExponent = 1.0; //--group-zipf-exponent
+    private String compression = null; //--compression
+
+    private PayloadPool payloadPool;
+    private SessionTopology topology;
+    private RunControl runControl;
+    private final ThroughputReporter throughputReporter = new ThroughputReporter(LOGGER, "sent");
+    //Only read over JMX, the logged send completion latencies come from the per-session histograms
+    private final LatencyTracker liveSendLatencyTracker = new LatencyTracker(LOGGER, "send completion latency");
+    private final ThreadStates threadStates = new ThreadStates();
+    private final ToolMetrics metrics = new ToolMetrics(throughputReporter, liveSendLatencyTracker, threadStates);
+
+    private final Histogram mergedSendCompletionHistogram = Histograms.create();
+    private final Histogram mergedSendLagHistogram = Histograms.create();
+    private final Histogram mergedSendLatencyHistogram = Histograms.create();
+    private final Histogram sessionSendCompletionP99Histogram = Histograms.create();
+    private final Histogram mergedCommitHistogram = Histograms.create();
+    private final CompressionStats mergedCompressionStats = new CompressionStats();
+
+    private SegmentedLogReader replayLog;
+    private ReplayClock replayClock;
+    private KeyDistribution groupKeys;
+    private String[] groupIds;
+
+    private List<String> destinationNames;
+    private DestinationTracker destinationTracker;
+    private KeyDistribution destinationKeys;
 
     private Context context;
     private ConnectionFactory connectionFactory;
@@ -55,20 +113,68 @@ public class ProducerTool implements Runnable {
     public static void main(String[] args) throws Exception {
         LOGGER.info("Starting ProducerTool");
         ProducerTool producerTool = new ProducerTool();
-        producerTool.parseCommandLine(args);
-        producerTool.logInternalState();
-        producerTool.validateInternalState();
-        producerTool.setupContextAndConnectionFactory();
-
-        if(producerTool.numThreads > 1) {
-            ExecutorService executor = Executors.newFixedThreadPool(producerTool.numThreads);
-            for(int t = 0; t < producerTool.numThreads; t++) {
-                executor.submit(producerTool);
-            }
-            executor.shutdown();
-            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
-        } else {
-            producerTool.run();
+        producerTool.configure(args);
+        producerTool.execute();
+    }
+
+    /**
+     * Parses and validates the arguments and opens the connections, without starting the run.
+     */
+    public void configure(String[] args) throws Exception {
+        parseCommandLine(args);
+        logInternalState();
+        validateInternalState();
+        metrics.register("ProducerTool");
+        boolean configured = false;
+        try {
+            setupContextAndConnectionFactory();
+            setupPayloadPool();
+            setupReplay();
+            setupGroupKeys();
+            setupRunControl();
+
+            setupDestinations();
+            setupConnections();
+            configured = true;
+        } finally {
+            //execute() is never reached after a failed setup, so the MXBean has to be dropped here
+            if(!configured) {
+                metrics.unregister();
+            }
+        }
+    }
+
+    /**
+     * Runs every session to completion and logs the results.
+     */
+    public void execute() throws Exception {
+        throughputReporter.setSummarizeSessions(isSummarizingSessions());
+        try {
+            runControl.start();
+            throughputReporter.start(reportIntervalSeconds);
+            int numSessionThreads = getNumSessionThreads();
+            if(numSessionThreads > 1 || virtualThreads) {
+                ExecutorService executor = ClientThreads.newExecutor(numSessionThreads, virtualThreads);
+                for(int t = 0; t < numSessionThreads; t++) {
+                    executor.submit(this);
+                }
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } else {
+                run();
+            }
+            topology.close();
+            throughputReporter.setStartNanos(runControl.getMeasurementStartNanos());
+            throughputReporter.stop();
+        } finally {
+            metrics.unregister();
+        }
+        logResults(runControl.getMeasuredNanos());
+        if(destinationTracker != null) {
+            destinationTracker.log(LOGGER, runControl.getMeasuredNanos());
+        }
+        if(replayLog != null) {
+            replayLog.close();
         }
     }
 
@@ -78,93 +184,354 @@ public class ProducerTool implements Runnable {
 
     }
 
+    public void setupPayloadPool() throws IOException {
+        //Text messages have no -l length so the pooled modes fall back to a small default body
+        int payloadLength = bytesLength > -1 ? bytesLength : DEFAULT_TEXT_PAYLOAD_LENGTH;
+        if (payloadMode.equalsIgnoreCase("fixed")) {
+            payloadPool = PayloadPool.fixed(payloadLength);
+        } else if (payloadMode.equalsIgnoreCase("random")) {
+            payloadPool = PayloadPool.random(payloadLength, payloadPoolSize, System.nanoTime());
+        } else if (payloadMode.equalsIgnoreCase("file")) {
+            payloadPool = PayloadPool.fromFiles(new File(payloadPath));
+        }
+        if (payloadPool != null) {
+            LOGGER.info("Prepared {} {} payload(s)", payloadPool.size(), payloadMode);
+        }
+    }
+
+    public ThroughputReporter getThroughputReporter() {
+        return throughputReporter;
+    }
+
+    public void setupRunControl() {
+        long numMessagesToSend = useFinalControlMessage ? numMessages - 1 : numMessages;
+        if (replayPath != null) {
+            //A replay runs until the log is used up unless a duration or total budget cuts it short
+            numMessagesToSend = Long.MAX_VALUE;
+        }
+        runControl = new RunControl(numMessagesToSend, totalMessages, warmupSeconds, durationSeconds);
+    }
+
+    public void setupGroupKeys() {
+        if (groupCount > 0) {
+            groupKeys = KeyDistribution.create(groupDistribution, groupCount, groupZipfExponent);
+            String prefix = messageGroupId != null ? messageGroupId : "group";
+            groupIds = new String[groupCount];
+            for (int g = 0; g < groupCount; g++) {
+                groupIds[g] = prefix + "-" + g;
+            }
+        }
+    }
+
+    public void setupReplay() throws IOException {
+        if (replayPath != null) {
+            replayLog = new SegmentedLogReader(new File(replayPath));
+            if (replaySpeed > 0) {
+                replayClock = new ReplayClock(replaySpeed);
+            }
+        }
+    }
+
+    public void setupDestinations() {
+        destinationNames = DestinationNames.expand(destinationName);
+        if (compositeDestination && destinationNames.size() > 1) {
+            destinationNames = Collections.singletonList(DestinationNames.composite(destinationNames));
+        }
+        if (destinationNames.size() > 1) {
+            destinationKeys = KeyDistribution.create(destinationDistribution, destinationNames.size(),
+                    destinationZipfExponent);
+        }
+        if (destinationNames.size() > 1 || compositeDestination) {
+            destinationTracker = new DestinationTracker("sent");
+        }
+    }
+
+    public void setupConnections() throws JMSException {
+        topology = SessionTopology.open(connectionFactory, numThreads, sessionsPerConnection, clientId, false);
+    }
+
+    private Destination createDestination(Session session, String name) throws JMSException, NamingException {
+        Destination destination = null;
+        if (jndiLookupDestinations) {
+            destination = (Destination) context.lookup(name);
+        } else {
+            if (useQueueDestinations) {
+                if (useTemporaryDestinations) {
+                    destination = session.createTemporaryQueue();
+                } else {
+                    destination = session.createQueue(name);
+                }
+            } else {
+                if (useTemporaryDestinations) {
+                    destination = session.createTemporaryTopic();
+                } else {
+                    destination = session.createTopic(name);
+                }
+            }
+        }
+        return destination;
+    }
+
+    public int getNumSessionThreads() {
+        return numThreads * sessionsPerConnection;
+    }
+
+    private boolean isSummarizingSessions() {
+        return getNumSessionThreads() > SESSION_LINE_LIMIT;
+    }
+
     @Override
     public void run() {
-        Connection connection = null;
+        SessionTopology.Slot slot = topology.nextSlot();
+        ThroughputCounters counters = throughputReporter.register(slot.toString());
+        Recorder liveSendRecorder = liveSendLatencyTracker.register(slot.toString());
+        ThreadStates.Entry threadState = threadStates.register(slot.toString());
         Session session = null;
         try {
-            connection = connectionFactory.createConnection();
-            if (clientId != null) {
-                connection.setClientID(clientId);
-            }
-            session = connection.createSession(transacted, acknowledgeMode);
-            Destination destination = null;
-            if (jndiLookupDestinations) {
-                destination = (Destination) context.lookup(destinationName);
-            } else {
-                if (useQueueDestinations) {
-                    if (useTemporaryDestinations) {
-                        destination = session.createTemporaryQueue();
-                    } else {
-                        destination = session.createQueue(destinationName);
-                    }
+            session = slot.getConnection().createSession(transacted, acknowledgeMode);
+            Destination[] destinations = new Destination[destinationNames.size()];
+            for (int d = 0; d < destinations.length; d++) {
+                destinations[d] = createDestination(session, destinationNames.get(d));
+            }
+
+            //A session is single threaded so all of its producers are driven from this thread in turn
+            MessageProducer[] producers = new MessageProducer[producersPerSession];
+            long[] producerSentCounts = new long[producersPerSession];
+            for (int p = 0; p < producersPerSession; p++) {
+                //With several destinations the producers are left unbound and each send names its destination
+                producers[p] = session.createProducer(destinations.length == 1 ? destinations[0] : null);
+                if(durable) {
+                    producers[p].setDeliveryMode(DeliveryMode.PERSISTENT);
                 } else {
-                    if (useTemporaryDestinations) {
-                        destination = session.createTemporaryTopic();
-                    } else {
-                        destination = session.createTopic(destinationName);
-                    }
+                    producers[p].setDeliveryMode(DeliveryMode.NON_PERSISTENT);
                 }
             }
 
+            PacedScheduler scheduler = null;
+            Histogram sendLagHistogram = null;
+            Histogram sendLatencyHistogram = null;
+            if (targetRate > 0) {
+                //The target rate is for the whole tool so each thread paces itself at its share of it
+                scheduler = new PacedScheduler(targetRate / getNumSessionThreads());
+                scheduler.start();
+            }
+            if (isPaced()) {
+                sendLagHistogram = Histograms.create();
+                sendLatencyHistogram = Histograms.create();
+            }
 
-            MessageProducer producer = session.createProducer(destination);
-            if(durable) {
-                producer.setDeliveryMode(DeliveryMode.PERSISTENT);
-            } else {
-                producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            PipelinedSender[] pipelinedSenders = null;
+            Histogram sendCompletionHistogram = Histograms.create();
+            if (asyncWindow > 0) {
+                pipelinedSenders = new PipelinedSender[producersPerSession];
+                for (int p = 0; p < producersPerSession; p++) {
+                    pipelinedSenders[p] = new PipelinedSender(producers[p], asyncWindow, liveSendRecorder);
+                }
             }
 
-            int numMessagesToSend = useFinalControlMessage ? numMessages - 1 : numMessages;
+            CompressionStats compressionStats = compression != null ? new CompressionStats() : null;
+            MessageBuilder messageBuilder = new MessageBuilder(bytesLength, payloadPool,
+                    compression != null ? CompressionCodec.create(compression) : null, compressionStats);
+            MessageCodec replayCodec = replayLog != null ? new MessageCodec() : null;
+            //Sequences are numbered per sending session since JMS only orders messages within a session
+            long[] groupSequences = groupKeys != null ? new long[groupCount] : null;
+            String senderId = UUID.randomUUID().toString();
+            String[] producerIds = new String[producersPerSession];
+            long[] producerSequences = new long[producersPerSession];
+            for (int p = 0; p < producersPerSession; p++) {
+                producerIds[p] = senderId + "-" + p;
+            }
+            CommitBatcher batcher = transacted ? newCommitBatcher() : null;
 
-            for (int i = 0; i < numMessagesToSend; i++) {
-                String messageText = "Message " + i + " at " + new Date();
-                if(bytesLength > -1) {
-                    byte[] messageTextBytes = messageText.getBytes(StandardCharsets.UTF_8);
-                    BytesMessage bytesMessage = session.createBytesMessage();
-                    bytesMessage.writeBytes(messageTextBytes);
-                    if(messageTextBytes.length < bytesLength) {
-                        byte[] paddingBytes = new byte[bytesLength - messageTextBytes.length];
-                        bytesMessage.writeBytes(paddingBytes);
+            long runStartNanos = System.nanoTime();
+            boolean warmingUp = runControl.isWarmingUp();
+            long measuredMessages = 0;
+            for (long i = 0; runControl.tryAcquire(i); i++) {
+                if (warmingUp && !runControl.isWarmingUp()) {
+                    //Everything recorded so far was warmup so the measurement starts over from here
+                    warmingUp = false;
+                    if (pipelinedSenders != null) {
+                        //Warmup sends still in flight would otherwise complete into the measured histogram
+                        for (PipelinedSender pipelinedSender : pipelinedSenders) {
+                            pipelinedSender.resetCompletionHistogram();
+                        }
+                    }
+                    runStartNanos = System.nanoTime();
+                    sendCompletionHistogram.reset();
+                    if (compressionStats != null) {
+                        compressionStats.reset();
                     }
-                    if (messageGroupId != null) {
-                        bytesMessage.setStringProperty("JMSXGroupID", messageGroupId);
+                    if (sendLagHistogram != null) {
+                        sendLagHistogram.reset();
+                        sendLatencyHistogram.reset();
+                    }
+                }
+                long intendedSendNanos = 0;
+                if (scheduler != null) {
+                    if (batcher != null && batcher.isLingerExpired(scheduler.peekNext())) {
+                        //The open batch would linger past its limit while waiting for the next scheduled send
+                        commitBatch(session, batcher, counters, threadState, warmingUp);
+                    }
+                    threadState.set(ThreadStates.State.PACING);
+                    intendedSendNanos = scheduler.awaitNext();
+                    Histograms.recordNanos(sendLagHistogram, System.nanoTime() - intendedSendNanos);
+                }
+                Message message;
+                long messageBytes;
+                if (replayCodec != null) {
+                    ByteBuffer record = replayLog.next();
+                    if (record == null) {
+                        break;
+                    }
+                    message = replayCodec.decode(record, session);
+                    messageBytes = replayCodec.getLastBodyLength();
+                    if (replayClock != null) {
+                        threadState.set(ThreadStates.State.PACING);
+                        intendedSendNanos = replayClock.awaitRecord(replayCodec.getLastArrivalMicros());
+                        Histograms.recordNanos(sendLagHistogram, System.nanoTime() - intendedSendNanos);
                     }
-                    LOGGER.info("Sending bytes message");
-                    producer.send(bytesMessage);
                 } else {
-                    TextMessage textMessage = session.createTextMessage(messageText);
-                    if (messageGroupId != null) {
-                        textMessage.setStringProperty("JMSXGroupID", messageGroupId);
+                    message = messageBuilder.build(session, i);
+                    messageBytes = messageBuilder.getLastBodyLength();
+                }
+                if (logEvery > 0 && (i + 1) % logEvery == 0) {
+                    if (message instanceof TextMessage) {
+                        LOGGER.info("Sending text message: " + ((TextMessage) message).getText());
+                    } else {
+                        LOGGER.info("Sending bytes message");
                     }
-                    LOGGER.info("Sending text message: " + messageText);
-                    producer.send(textMessage);
+                }
+                if (groupKeys != null) {
+                    int group = groupKeys.next(i);
+                    message.setStringProperty("JMSXGroupID", groupIds[group]);
+                    message.setLongProperty(MessageProperties.GROUP_SEQUENCE, ++groupSequences[group]);
+                    message.setStringProperty(MessageProperties.GROUP_SENDER, senderId);
+                } else if (messageGroupId != null) {
+                    message.setStringProperty("JMSXGroupID", messageGroupId);
+                }
+                int p = (int) Math.floorMod(i, (long) producersPerSession);
+                message.setStringProperty(MessageProperties.PRODUCER_ID, producerIds[p]);
+                message.setLongProperty(MessageProperties.PRODUCER_SEQUENCE, ++producerSequences[p]);
+                message.setLongProperty(MessageProperties.SEND_TIME_MICROS, WallClock.currentTimeMicros());
+                int d = destinationKeys != null ? destinationKeys.next(i) : 0;
+                Destination target = destinationKeys != null ? destinations[d] : null;
+                //A replayed message keeps the priority and delivery mode it was captured with
+                int deliveryMode = replayCodec != null ? replayCodec.getLastDeliveryMode() : producers[p].getDeliveryMode();
+                int priority = replayCodec != null ? replayCodec.getLastPriority() : producers[p].getPriority();
+                threadState.set(ThreadStates.State.SENDING);
+                if (pipelinedSenders != null) {
+                    pipelinedSenders[p].send(target, message, deliveryMode, priority);
+                } else {
+                    long sendStartNanos = System.nanoTime();
+                    if (target != null) {
+                        producers[p].send(target, message, deliveryMode, priority, Message.DEFAULT_TIME_TO_LIVE);
+                    } else {
+                        producers[p].send(message, deliveryMode, priority, Message.DEFAULT_TIME_TO_LIVE);
+                    }
+                    long sendCompletionNanos = System.nanoTime() - sendStartNanos;
+                    Histograms.recordNanos(sendCompletionHistogram, sendCompletionNanos);
+                    Histograms.recordNanos(liveSendRecorder, sendCompletionNanos);
+                }
+                if (!warmingUp) {
+                    producerSentCounts[p]++;
+                    measuredMessages++;
+                    counters.onMessage(messageBytes);
+                    if (destinationTracker != null) {
+                        destinationTracker.onMessage(destinationNames.get(d), messageBytes);
+                    }
+                }
+                if (sendLatencyHistogram != null) {
+                    //Measured from the intended send time so a stalled send also charges the sends queued behind it
+                    Histograms.recordNanos(sendLatencyHistogram, System.nanoTime() - intendedSendNanos);
                 }
 
                 if (perMessageSleepMS > 0) {
                     Thread.sleep(perMessageSleepMS);
                 }
-                if (transacted) {
-                    if ((i + 1) % batchSize == 0) {
-                        session.commit();
-                    }
+                if (batcher != null && batcher.add(messageBytes)) {
+                    commitBatch(session, batcher, counters, threadState, warmingUp);
                 }
             }
+            if (batcher != null && batcher.hasPending()) {
+                //The last batch is usually partial and would otherwise be rolled back when the session closes
+                commitBatch(session, batcher, counters, threadState, false);
+            }
             if (useFinalControlMessage) {
                 Message message = session.createMessage();
                 if(messageGroupId != null) {
                     message.setStringProperty("JMSXGroupID", messageGroupId);
                 }
                 LOGGER.info("Sending message");
-                producer.send(message);
+                if (destinations.length == 1) {
+                    producers[0].send(message);
+                } else {
+                    //Every destination gets the control message so that consumers on any of them can stop
+                    for (Destination destination : destinations) {
+                        producers[0].send(destination, message);
+                    }
+                }
                 if (transacted) {
                     session.commit();
+                    counters.onCommit();
+                }
+            }
+            if (pipelinedSenders != null) {
+                for (PipelinedSender pipelinedSender : pipelinedSenders) {
+                    pipelinedSender.drain();
+                    sendCompletionHistogram.add(pipelinedSender.getCompletionHistogram());
+                    if (pipelinedSender.getFailureCount() > 0) {
+                        counters.onErrors(pipelinedSender.getFailureCount());
+                        LOGGER.error("{} pipelined sends failed", pipelinedSender.getFailureCount());
+                    }
+                }
+            }
+            long runNanos = System.nanoTime() - runStartNanos;
+            for (MessageProducer producer : producers) {
+                producer.close();
+            }
+
+            String sessionName = slot.toString();
+            boolean logSession = !isSummarizingSessions();
+            if (logSession) {
+                LOGGER.info("{} sent {} messages in {} ms ({} msgs/s)", new Object[] {sessionName, measuredMessages,
+                        TimeUnit.NANOSECONDS.toMillis(runNanos), Rates.perSecond(measuredMessages, runNanos)});
+                if (producersPerSession > 1) {
+                    for (int p = 0; p < producersPerSession; p++) {
+                        LOGGER.info("{}/producer-{} sent {} messages ({} msgs/s)", new Object[] {sessionName, p,
+                                producerSentCounts[p], Rates.perSecond(producerSentCounts[p], runNanos)});
+                    }
+                }
+                Histograms.log(LOGGER, sessionName + " send completion latency", sendCompletionHistogram);
+                if (batcher != null && batchTargetCommitMS > 0) {
+                    LOGGER.info("{} adaptive batch size settled at {}", sessionName, batcher.getMaxMessages());
+                }
+            }
+            topology.addMessages(slot, measuredMessages);
+            synchronized (this) {
+                mergedSendCompletionHistogram.add(sendCompletionHistogram);
+                if (batcher != null) {
+                    mergedCommitHistogram.add(batcher.getCommitHistogram());
+                }
+                if (compressionStats != null) {
+                    mergedCompressionStats.add(compressionStats);
+                }
+                if (sendCompletionHistogram.getTotalCount() > 0) {
+                    sessionSendCompletionP99Histogram.recordValue(sendCompletionHistogram.getValueAtPercentile(99.0));
+                }
+                if (sendLagHistogram != null) {
+                    if (logSession) {
+                        Histograms.log(LOGGER, sessionName + " send lag behind schedule", sendLagHistogram);
+                        Histograms.log(LOGGER, sessionName + " send latency from intended time", sendLatencyHistogram);
+                    }
+                    mergedSendLagHistogram.add(sendLagHistogram);
+                    mergedSendLatencyHistogram.add(sendLatencyHistogram);
                 }
             }
-            producer.close();
         } catch (Exception ex) {
+            counters.onError();
             LOGGER.error("ProducerTool hit exception: " + ex.getMessage(), ex);
         } finally {
+            threadState.set(ThreadStates.State.DONE);
             if (session != null) {
                 try {
                     session.close();
@@ -172,13 +539,58 @@ public class ProducerTool implements Runnable {
                     LOGGER.error("JMSException closing session", e);
                 }
             }
-            if (connection != null) {
-                try {
-                    connection.close();
-                } catch (JMSException e) {
-                    LOGGER.error("JMSException closing session", e);
-                }
-            }
+        }
+    }
+
+    /**
+     * True when sends follow a schedule, either a target rate or the timeline of a replayed log.
+     */
+    private boolean isPaced() {
+        return targetRate > 0 || replayClock != null;
+    }
+
+    private CommitBatcher newCommitBatcher() {
+        return new CommitBatcher(batchSize, batchBytes, batchLingerMS, batchTargetCommitMS);
+    }
+
+    private void commitBatch(Session session, CommitBatcher batcher, ThroughputCounters counters,
+                             ThreadStates.Entry threadState, boolean warmingUp) throws JMSException {
+        threadState.set(ThreadStates.State.COMMITTING);
+        long commitStartNanos = System.nanoTime();
+        try {
+            session.commit();
+        } catch (TransactionRolledBackException e) {
+            counters.onRollback();
+            throw e;
+        }
+        batcher.onCommitted(System.nanoTime() - commitStartNanos, !warmingUp);
+        if (!warmingUp) {
+            counters.onCommit();
+        }
+    }
+
+    public synchronized void logResults(long elapsedNanos) {
+        long totalMessages = mergedSendCompletionHistogram.getTotalCount();
+        if (getNumSessionThreads() > 1 && !isSummarizingSessions()) {
+            topology.logConnectionTotals(LOGGER, "sent", elapsedNanos);
+        }
+        LOGGER.info("Sent {} messages in {} ms ({} msgs/s across {} connections x {} sessions x {} producers, asyncWindow = {})",
+                new Object[] {totalMessages, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), Rates.perSecond(totalMessages, elapsedNanos),
+                        numThreads, sessionsPerConnection, producersPerSession, asyncWindow});
+        Histograms.log(LOGGER, "Total send completion latency", mergedSendCompletionHistogram);
+        if (isSummarizingSessions()) {
+            Histograms.log(LOGGER, "Total send completion latency p99 across " + getNumSessionThreads() + " sessions",
+                    sessionSendCompletionP99Histogram);
+        }
+        if (transacted) {
+            Histograms.log(LOGGER, "Total commit latency", mergedCommitHistogram);
+        }
+        if (compression != null) {
+            mergedCompressionStats.log(LOGGER, "Compressed", elapsedNanos);
+        }
+        if (isPaced()) {
+            Histograms.log(LOGGER, "Total send lag behind schedule", mergedSendLagHistogram);
+            Histograms.log(LOGGER, "Total send latency from intended time", mergedSendLatencyHistogram);
         }
     }
 
@@ -223,7 +635,7 @@ public class ProducerTool implements Runnable {
         Option numThreadsOpt = OptionBuilder.withLongOpt("num-threads")
                 .withArgName("num")
                 .hasArg()
-                .withDescription("number of threads to run in parallel each with a connection")
+                .withDescription("number of connections to run in parallel (each session on a connection gets its own thread)")
                 .create("g");
         options.addOption(numThreadsOpt);
 
@@ -254,7 +666,8 @@ public class ProducerTool implements Runnable {
         Option destNameOpt = OptionBuilder.withLongOpt("destination-name")
                 .withArgName("name")
                 .hasArg()
-                .withDescription("name of the destination to receive from")
+                .withDescription("name of the destination to send to, or a pattern such as ORDERS.{0..499} to " +
+                        "spread messages over each of them")
                 .create("n");
         options.addOption(destNameOpt);
 
@@ -288,10 +701,192 @@ public class ProducerTool implements Runnable {
         Option batchSizeOpt = OptionBuilder.withLongOpt("batch-size")
                 .withArgName("size")
                 .hasArg()
-                .withDescription("size of the batch to ack or commit when using client ack mode or transacted sessions")
+                .withDescription("number of messages in each commit when using transacted sessions")
                 .create("z");
         options.addOption(batchSizeOpt);
 
+        Option batchBytesOpt = OptionBuilder.withLongOpt("batch-bytes")
+                .withArgName("bytes")
+                .hasArg()
+                .withDescription("also close a batch once its message bodies add up to this many bytes")
+                .create();
+        options.addOption(batchBytesOpt);
+
+        Option batchLingerOpt = OptionBuilder.withLongOpt("batch-linger")
+                .withArgName("millis")
+                .hasArg()
+                .withDescription("also close a batch once this long has passed since its first message, so batches " +
+                        "do not stay open at low rates")
+                .create();
+        options.addOption(batchLingerOpt);
+
+        Option batchTargetCommitOpt = OptionBuilder.withLongOpt("batch-target-commit")
+                .withArgName("millis")
+                .hasArg()
+                .withDescription("adapt the batch size (starting from -z) for the best throughput while keeping " +
+                        "commit latency under this many ms")
+                .create();
+        options.addOption(batchTargetCommitOpt);
+
+        Option targetRateOpt = OptionBuilder.withLongOpt("target-rate")
+                .withArgName("msgsPerSec")
+                .hasArg()
+                .withDescription("open-loop send rate in messages per second across all threads (records how far each send falls behind its scheduled time)")
+                .create();
+        options.addOption(targetRateOpt);
+
+        Option payloadModeOpt = OptionBuilder.withLongOpt("payload-mode")
+                .withArgName("mode")
+                .hasArg()
+                .withDescription("message body source: generated (per message text, the default), fixed (one reused body), " +
+                        "random (pool of precomputed random bodies), file (bodies loaded from --payload-path)")
+                .create();
+        options.addOption(payloadModeOpt);
+
+        Option payloadPathOpt = OptionBuilder.withLongOpt("payload-path")
+                .withArgName("path")
+                .hasArg()
+                .withDescription("file or directory of files to load message bodies from when using the file payload mode")
+                .create();
+        options.addOption(payloadPathOpt);
+
+        Option payloadPoolSizeOpt = OptionBuilder.withLongOpt("payload-pool-size")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("number of distinct bodies to precompute when using the random payload mode")
+                .create();
+        options.addOption(payloadPoolSizeOpt);
+
+        Option asyncWindowOpt = OptionBuilder.withLongOpt("async-window")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("number of sends each thread may have outstanding without waiting for the broker " +
+                        "(0 sends synchronously, only supported with the ActiveMQ client)")
+                .create();
+        options.addOption(asyncWindowOpt);
+
+        Option sessionsPerConnectionOpt = OptionBuilder.withLongOpt("sessions-per-connection")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("number of sessions to multiplex onto each connection")
+                .create();
+        options.addOption(sessionsPerConnectionOpt);
+
+        Option producersPerSessionOpt = OptionBuilder.withLongOpt("producers-per-session")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("number of producers to create on each session (messages are sent round robin across them)")
+                .create();
+        options.addOption(producersPerSessionOpt);
+
+        Option reportIntervalOpt = OptionBuilder.withLongOpt("report-interval")
+                .withArgName("seconds")
+                .hasArg()
+                .withDescription("interval (in seconds) at which to log throughput (0 only logs the final totals)")
+                .create();
+        options.addOption(reportIntervalOpt);
+
+        Option logEveryOpt = OptionBuilder.withLongOpt("log-every")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("log every Nth sent message (0, the default, disables per message logging)")
+                .create();
+        options.addOption(logEveryOpt);
+
+        Option durationOpt = OptionBuilder.withLongOpt("duration")
+                .withArgName("seconds")
+                .hasArg()
+                .withDescription("send for this many seconds after the warmup instead of stopping at -m messages per thread")
+                .create();
+        options.addOption(durationOpt);
+
+        Option warmupOpt = OptionBuilder.withLongOpt("warmup")
+                .withArgName("seconds")
+                .hasArg()
+                .withDescription("seconds at the start of the run whose throughput and latency results are discarded, " +
+                        "needs --duration since messages in the warmup count against -m and --total-messages")
+                .create();
+        options.addOption(warmupOpt);
+
+        Option totalMessagesOpt = OptionBuilder.withLongOpt("total-messages")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("number of messages to send shared across all threads instead of -m per thread")
+                .create();
+        options.addOption(totalMessagesOpt);
+
+        Option virtualThreadsOpt = OptionBuilder.withLongOpt("virtual-threads")
+                .withDescription("run each session on a virtual thread instead of a pooled platform thread (Java 21+), " +
+                        "for simulating thousands of clients")
+                .create();
+        options.addOption(virtualThreadsOpt);
+
+        Option compositeDestinationOpt = OptionBuilder.withLongOpt("composite-destination")
+                .withDescription("join the destinations of a -n pattern such as ORDERS.{0..499} into one composite " +
+                        "destination (ActiveMQ) instead of one destination each")
+                .create();
+        options.addOption(compositeDestinationOpt);
+
+        Option destinationDistributionOpt = OptionBuilder.withLongOpt("destination-distribution")
+                .withArgName("name")
+                .hasArg()
+                .withDescription("how messages are spread over the destinations of a -n pattern: round-robin, " +
+                        "uniform or zipf")
+                .create();
+        options.addOption(destinationDistributionOpt);
+
+        Option destinationZipfExponentOpt = OptionBuilder.withLongOpt("destination-zipf-exponent")
+                .withArgName("exponent")
+                .hasArg()
+                .withDescription("skew of the zipf destination distribution, higher makes the busiest destinations busier")
+                .create();
+        options.addOption(destinationZipfExponentOpt);
+
+        Option replayOpt = OptionBuilder.withLongOpt("replay")
+                .withArgName("path")
+                .hasArg()
+                .withDescription("send the messages recorded by ConsumerTool (--record directory or --browse-export " +
+                        "file) instead of generated ones, until the log is used up")
+                .create();
+        options.addOption(replayOpt);
+
+        Option replaySpeedOpt = OptionBuilder.withLongOpt("replay-speed")
+                .withArgName("multiple")
+                .hasArg()
+                .withDescription("replay at this multiple of the recorded pace (0 sends as fast as possible)")
+                .create();
+        options.addOption(replaySpeedOpt);
+
+        Option groupCountOpt = OptionBuilder.withLongOpt("group-count")
+                .withArgName("num")
+                .hasArg()
+                .withDescription("spread messages over this many JMSXGroupIDs (prefixed with -x if set) and number " +
+                        "them per group")
+                .create();
+        options.addOption(groupCountOpt);
+
+        Option groupDistributionOpt = OptionBuilder.withLongOpt("group-distribution")
+                .withArgName("name")
+                .hasArg()
+                .withDescription("how messages are spread over the groups: round-robin, uniform or zipf")
+                .create();
+        options.addOption(groupDistributionOpt);
+
+        Option groupZipfExponentOpt = OptionBuilder.withLongOpt("group-zipf-exponent")
+                .withArgName("exponent")
+                .hasArg()
+                .withDescription("skew of the zipf group distribution, higher makes the hottest groups hotter")
+                .create();
+        options.addOption(groupZipfExponentOpt);
+
+        Option compressionOpt = OptionBuilder.withLongOpt("compression")
+                .withArgName("codec")
+                .hasArg()
+                .withDescription("compress every bytes message body with deflate, lz4 or zstd and tag the codec in a " +
+                        "property so ConsumerTool decompresses it (needs -l, use random or file payloads for a " +
+                        "realistic ratio since generated bodies are mostly zero padding)")
+                .create();
+        options.addOption(compressionOpt);
 
 
 
@@ -381,6 +976,110 @@ public class ProducerTool implements Runnable {
                 batchSize = Integer.parseInt(line.getOptionValue("z"));
             }
 
+            if(line.hasOption("batch-bytes")) {
+                batchBytes = Long.parseLong(line.getOptionValue("batch-bytes"));
+            }
+
+            if(line.hasOption("batch-linger")) {
+                batchLingerMS = Long.parseLong(line.getOptionValue("batch-linger"));
+            }
+
+            if(line.hasOption("batch-target-commit")) {
+                batchTargetCommitMS = Long.parseLong(line.getOptionValue("batch-target-commit"));
+            }
+
+            if(line.hasOption("target-rate")) {
+                targetRate = Double.parseDouble(line.getOptionValue("target-rate"));
+            }
+
+            if(line.hasOption("payload-mode")) {
+                payloadMode = line.getOptionValue("payload-mode");
+                if(!payloadMode.equalsIgnoreCase("generated") && !payloadMode.equalsIgnoreCase("fixed")
+                        && !payloadMode.equalsIgnoreCase("random") && !payloadMode.equalsIgnoreCase("file")) {
+                    throw new ParseException("Invalid value for payload mode: " + payloadMode);
+                }
+            }
+
+            if(line.hasOption("payload-path")) {
+                payloadPath = line.getOptionValue("payload-path");
+            }
+
+            if(line.hasOption("payload-pool-size")) {
+                payloadPoolSize = Integer.parseInt(line.getOptionValue("payload-pool-size"));
+            }
+
+            if(line.hasOption("async-window")) {
+                asyncWindow = Integer.parseInt(line.getOptionValue("async-window"));
+            }
+
+            if(line.hasOption("sessions-per-connection")) {
+                sessionsPerConnection = Integer.parseInt(line.getOptionValue("sessions-per-connection"));
+            }
+
+            if(line.hasOption("producers-per-session")) {
+                producersPerSession = Integer.parseInt(line.getOptionValue("producers-per-session"));
+            }
+
+            if(line.hasOption("report-interval")) {
+                reportIntervalSeconds = Integer.parseInt(line.getOptionValue("report-interval"));
+            }
+
+            if(line.hasOption("log-every")) {
+                logEvery = Integer.parseInt(line.getOptionValue("log-every"));
+            }
+
+            if(line.hasOption("duration")) {
+                durationSeconds = Integer.parseInt(line.getOptionValue("duration"));
+            }
+
+            if(line.hasOption("warmup")) {
+                warmupSeconds = Integer.parseInt(line.getOptionValue("warmup"));
+            }
+
+            if(line.hasOption("total-messages")) {
+                totalMessages = Long.parseLong(line.getOptionValue("total-messages"));
+            }
+
+            if(line.hasOption("virtual-threads")) {
+                virtualThreads = true;
+            }
+
+            if(line.hasOption("composite-destination")) {
+                compositeDestination = true;
+            }
+
+            if(line.hasOption("destination-distribution")) {
+                destinationDistribution = line.getOptionValue("destination-distribution");
+            }
+
+            if(line.hasOption("destination-zipf-exponent")) {
+                destinationZipfExponent = Double.parseDouble(line.getOptionValue("destination-zipf-exponent"));
+            }
+
+            if(line.hasOption("replay")) {
+                replayPath = line.getOptionValue("replay");
+            }
+
+            if(line.hasOption("replay-speed")) {
+                replaySpeed = Double.parseDouble(line.getOptionValue("replay-speed"));
+            }
+
+            if(line.hasOption("group-count")) {
+                groupCount = Integer.parseInt(line.getOptionValue("group-count"));
+            }
+
+            if(line.hasOption("group-distribution")) {
+                groupDistribution = line.getOptionValue("group-distribution");
+            }
+
+            if(line.hasOption("group-zipf-exponent")) {
+                groupZipfExponent = Double.parseDouble(line.getOptionValue("group-zipf-exponent"));
+            }
+
+            if(line.hasOption("compression")) {
+                compression = line.getOptionValue("compression");
+            }
+
         } catch (ParseException exp) {
             LOGGER.error("Commandline parsing exception: " + exp.getMessage(), exp);
             HelpFormatter formatter = new HelpFormatter();
@@ -393,10 +1092,22 @@ public class ProducerTool implements Runnable {
         LOGGER.info("Internal state: acknowledgeMode = {}, clientId = {}, durable = {}, perMessageSleepMS = {}, connectionFactoryName = {}, " +
                 "numThreads = {}, jndiLookupDestinations = {}, bytesLength = {}, numMessages = {}, destinationName = {}, " +
                 "useFinalControlMessage = {}, useTemporaryDestinations = {}, useQueueDestinations = {}, transacted = {}, " +
-                "messageGroupId = {}, batchSize = {}",
+                "messageGroupId = {}, batchSize = {}, targetRate = {}, " +
+                "payloadMode = {}, payloadPath = {}, payloadPoolSize = {}, asyncWindow = {}, " +
+                "sessionsPerConnection = {}, producersPerSession = {}, reportIntervalSeconds = {}, logEvery = {}, " +
+                "durationSeconds = {}, warmupSeconds = {}, totalMessages = {}, virtualThreads = {}, " +
+                "batchBytes = {}, batchLingerMS = {}, batchTargetCommitMS = {}, replayPath = {}, replaySpeed = {}, " +
+                "groupCount = {}, groupDistribution = {}, groupZipfExponent = {}, compositeDestination = {}, " +
+                "destinationDistribution = {}, destinationZipfExponent = {}, compression = {}",
                 new Object[] {acknowledgeMode, clientId, durable, perMessageSleepMS, connectionFactoryName, numThreads,
                         jndiLookupDestinations, bytesLength, numMessages, destinationName, useFinalControlMessage,
-                        useTemporaryDestinations, useQueueDestinations, transacted, messageGroupId, batchSize});
+                        useTemporaryDestinations, useQueueDestinations, transacted, messageGroupId, batchSize, targetRate,
+                        payloadMode, payloadPath, payloadPoolSize, asyncWindow,
+                        sessionsPerConnection, producersPerSession, reportIntervalSeconds, logEvery,
+                        durationSeconds, warmupSeconds, totalMessages, virtualThreads,
+                        batchBytes, batchLingerMS, batchTargetCommitMS, replayPath, replaySpeed,
+                        groupCount, groupDistribution, groupZipfExponent, compositeDestination,
+                        destinationDistribution, destinationZipfExponent, compression});
 
     }
 
@@ -404,5 +1115,70 @@ public class ProducerTool implements Runnable {
         if(bytesLength < -1) {
             throw new Exception("Cannot set bytesLength to a negative number");
         }
+        if(targetRate < 0) {
+            throw new Exception("Cannot set targetRate to a negative number");
+        }
+        if(payloadMode.equalsIgnoreCase("file") && payloadPath == null) {
+            throw new Exception("Cannot use the file payload mode without setting a payload path (--payload-path)");
+        }
+        if(groupCount < 0) {
+            throw new Exception("Cannot set groupCount to a negative number");
+        }
+        if(!KeyDistribution.isValid(groupDistribution)) {
+            throw new Exception("Cannot use group distribution " + groupDistribution + ", expected round-robin, uniform or zipf");
+        }
+        if(groupZipfExponent <= 0) {
+            throw new Exception("Cannot set groupZipfExponent to zero or less");
+        }
+        if(!KeyDistribution.isValid(destinationDistribution)) {
+            throw new Exception("Cannot use destination distribution " + destinationDistribution + ", expected round-robin, uniform or zipf");
+        }
+        if(destinationZipfExponent <= 0) {
+            throw new Exception("Cannot set destinationZipfExponent to zero or less");
+        }
+        if(replaySpeed < 0) {
+            throw new Exception("Cannot set replaySpeed to a negative number");
+        }
+        if(compression != null && !CompressionCodec.isValid(compression)) {
+            throw new Exception("Cannot use compression codec " + compression + ", expected deflate, lz4 or zstd");
+        }
+        if(compression != null && bytesLength < 0) {
+            throw new Exception("Cannot compress text messages, compression needs bytes messages (-l)");
+        }
+        if(compression != null && replayPath != null) {
+            throw new Exception("Cannot compress a replay, replayed messages are sent as they were recorded");
+        }
+        if(replayPath != null && targetRate > 0) {
+            throw new Exception("Cannot use a target rate (--target-rate) with a replay, use --replay-speed instead");
+        }
+        if(batchSize < 1) {
+            throw new Exception("Cannot set batchSize to less than one");
+        }
+        if(batchBytes < 0 || batchLingerMS < 0 || batchTargetCommitMS < 0) {
+            throw new Exception("Cannot set batchBytes, batchLingerMS or batchTargetCommitMS to a negative number");
+        }
+        if(useTemporaryDestinations && DestinationNames.expand(destinationName).size() > 1) {
+            throw new Exception("Cannot use a destination pattern with temporary destinations");
+        }
+        if(virtualThreads && !ClientThreads.isVirtualThreadSupported()) {
+            throw new Exception("Cannot use virtual threads on Java " + System.getProperty("java.version") +
+                    ", Java 21 or later is required");
+        }
+        if(numThreads < 1 || sessionsPerConnection < 1 || producersPerSession < 1) {
+            throw new Exception("Cannot set numThreads, sessionsPerConnection or producersPerSession to less than one");
+        }
+        if(durationSeconds < 0 || warmupSeconds < 0 || totalMessages < 0) {
+            throw new Exception("Cannot set durationSeconds, warmupSeconds or totalMessages to a negative number");
+        }
+        if(warmupSeconds > 0 && durationSeconds == 0) {
+            //A message limit could otherwise be used up inside the warmup, leaving nothing to measure
+            throw new Exception("Cannot use a warmup without a duration (--duration)");
+        }
+        if(asyncWindow < 0) {
+            throw new Exception("Cannot set asyncWindow to a negative number");
+        }
+        if(payloadPoolSize < 1) {
+            throw new Exception("Cannot set payloadPoolSize to less than one");
+        }
     }
 }
\ No newline at end of file
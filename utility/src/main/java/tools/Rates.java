@@ -0,0 +1,33 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+/**
+ * Turns a count over a measured interval into a whole per-second rate for the result logs.
+ */
+public final class Rates {
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    private Rates() {
+    }
+
+    /**
+     * Returns zero rather than dividing by an empty interval, such as a run that stopped before measuring began.
+     */
+    public static long perSecond(long count, long elapsedNanos) {
+        return elapsedNanos > 0 ? (long) (count * NANOS_PER_SECOND / elapsedNanos) : 0;
+    }
+}
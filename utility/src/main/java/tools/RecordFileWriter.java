@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends length-prefixed records to a file, either through a large write buffer or through a sliding memory-mapped
+ * region.  Both write strictly sequentially so the file can be far larger than the heap.
+ */
+public abstract class RecordFileWriter implements Closeable {
+    static Logger LOGGER = LoggerFactory.getLogger(RecordFileWriter.class);
+    static final int WRITE_BUFFER_BYTES = 1024 * 1024;
+    static final int MAP_REGION_BYTES = 64 * 1024 * 1024;
+
+    protected long bytesWritten;
+    protected long recordsWritten;
+
+    public static RecordFileWriter open(File file, boolean mapped) throws IOException {
+        return mapped ? new Mapped(file) : new Buffered(file);
+    }
+
+    /**
+     * Appends the first length bytes of the record, preceded by the length.
+     */
+    public abstract void write(byte[] record, int length) throws IOException;
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    private static class Buffered extends RecordFileWriter {
+        private final DataOutputStream out;
+
+        Buffered(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), WRITE_BUFFER_BYTES));
+        }
+
+        @Override
+        public void write(byte[] record, int length) throws IOException {
+            out.writeInt(length);
+            out.write(record, 0, length);
+            bytesWritten += 4 + length;
+            recordsWritten++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static class Mapped extends RecordFileWriter {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final byte[] lengthBytes = new byte[4];
+        private MappedByteBuffer region;
+        private long regionStart;
+
+        Mapped(File path) throws IOException {
+            file = new RandomAccessFile(path, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            mapRegion(0);
+        }
+
+        @Override
+        public void write(byte[] record, int length) throws IOException {
+            lengthBytes[0] = (byte) (length >>> 24);
+            lengthBytes[1] = (byte) (length >>> 16);
+            lengthBytes[2] = (byte) (length >>> 8);
+            lengthBytes[3] = (byte) length;
+            put(lengthBytes, 4);
+            put(record, length);
+            recordsWritten++;
+        }
+
+        private void put(byte[] bytes, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                if (!region.hasRemaining()) {
+                    mapRegion(regionStart + MAP_REGION_BYTES);
+                }
+                //Records may straddle two regions so copy whatever fits and continue in the next one
+                int chunk = Math.min(region.remaining(), length - offset);
+                region.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+            bytesWritten += length;
+        }
+
+        private void mapRegion(long start) throws IOException {
+            if (region != null) {
+                MappedByteBuffer full = region;
+                region = null;
+                unmap(full);
+            }
+            regionStart = start;
+            region = channel.map(FileChannel.MapMode.READ_WRITE, start, MAP_REGION_BYTES);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                region.force();
+                MappedByteBuffer last = region;
+                region = null;
+                unmap(last);
+                //Mapping grows the file a whole region at a time so cut it back to what was written
+                channel.truncate(bytesWritten);
+            } finally {
+                file.close();
+            }
+        }
+
+        /**
+         * Releases a mapping now instead of whenever the buffer is garbage collected, since Windows refuses to
+         * truncate a file while any part of it is still mapped.  The buffer must never be touched again.
+         */
+        private static void unmap(MappedByteBuffer buffer) {
+            try {
+                Method invokeCleaner;
+                try {
+                    //Java 9 and later
+                    invokeCleaner = Class.forName("sun.misc.Unsafe").getMethod("invokeCleaner", ByteBuffer.class);
+                } catch (NoSuchMethodException e) {
+                    invokeCleaner = null;
+                }
+                if (invokeCleaner != null) {
+                    Field theUnsafe = invokeCleaner.getDeclaringClass().getDeclaredField("theUnsafe");
+                    theUnsafe.setAccessible(true);
+                    invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                } else {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (Exception e) {
+                //The mapping is then released by the garbage collector, which is only a problem on Windows where the
+                //truncate in close will report it
+                LOGGER.debug("Could not release a mapped region early: " + e);
+            }
+        }
+    }
+}
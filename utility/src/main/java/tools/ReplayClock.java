@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+/**
+ * Paces a replay so that records are sent with the same spacing they were captured with, optionally sped up or
+ * slowed down.  The clock is anchored by the first record any thread asks about, so sessions sharing a replay keep
+ * the original timeline between them.
+ */
+public class ReplayClock {
+    private final double speed;
+    private long firstRecordMicros;
+    private long startNanos;
+    private boolean anchored;
+
+    /**
+     * @param speed multiple of the captured pace, for example 2.0 to replay twice as fast
+     */
+    public ReplayClock(double speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Speed must be greater than zero: " + speed);
+        }
+        this.speed = speed;
+    }
+
+    /**
+     * Waits until the record's place on the replay timeline and returns that intended send time.
+     */
+    public long awaitRecord(long recordMicros) {
+        long intendedNanos;
+        synchronized (this) {
+            if (!anchored) {
+                anchored = true;
+                firstRecordMicros = recordMicros;
+                startNanos = System.nanoTime();
+            }
+            intendedNanos = startNanos + (long) ((recordMicros - firstRecordMicros) * 1000L / speed);
+        }
+        PacedScheduler.awaitNanos(intendedNanos);
+        return intendedNanos;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when the sessions of a run stop and which part of the run is measured.  A run ends when a session hits
+ * its own message limit, when the message budget shared by all sessions is used up, or when the duration elapses.
+ * Results from the warmup period at the start are meant to be discarded by the callers.
+ */
+public class RunControl {
+    private static final long UNBOUNDED = Long.MAX_VALUE;
+
+    private final long perSessionLimit;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final AtomicLong budgetUsed = new AtomicLong();
+    private final long budget;
+    private volatile long startNanos;
+    private volatile long measurementStartNanos;
+    private volatile long endNanos = UNBOUNDED;
+    private final List<CountDownLatch> sessionSignals = new CopyOnWriteArrayList<CountDownLatch>();
+
+    /**
+     * @param perSessionLimit messages per session, ignored when a duration or total budget is set
+     * @param totalMessages messages shared across all sessions, or zero for no budget
+     * @param warmupSeconds seconds at the start of the run whose results are discarded
+     * @param durationSeconds seconds to measure for after the warmup, or zero for no time limit
+     */
+    public RunControl(long perSessionLimit, long totalMessages, int warmupSeconds, int durationSeconds) {
+        boolean limitedElsewhere = totalMessages > 0 || durationSeconds > 0;
+        this.perSessionLimit = limitedElsewhere ? UNBOUNDED : perSessionLimit;
+        this.budget = totalMessages > 0 ? totalMessages : UNBOUNDED;
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        start();
+    }
+
+    /**
+     * Starts the run clock.  The constructor starts it too so the control is usable right away, but the tools call
+     * this again once their connections are up so that setup time does not count against the warmup or duration.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        measurementStartNanos = startNanos + warmupNanos;
+        if (durationNanos > 0) {
+            endNanos = measurementStartNanos + durationNanos;
+        }
+    }
+
+    /**
+     * Claims the right to send one more message.  Used by producers so that the shared budget is never exceeded.
+     */
+    public boolean tryAcquire(long sessionCount) {
+        if (sessionCount >= perSessionLimit || isExpired()) {
+            return false;
+        }
+        if (budget == UNBOUNDED) {
+            return true;
+        }
+        if (budgetUsed.incrementAndGet() > budget) {
+            budgetUsed.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a message that has already arrived against the shared budget.  Used by consumers, which cannot refuse
+     * a message once it is delivered.
+     */
+    public void onConsumed() {
+        if (budget != UNBOUNDED && budgetUsed.incrementAndGet() == budget) {
+            //Sessions waiting on a listener may never see another message so wake all of them
+            for (CountDownLatch sessionSignal : sessionSignals) {
+                sessionSignal.countDown();
+            }
+        }
+    }
+
+    /**
+     * Creates the signal an async session waits on with {@link #awaitDone}.  The session's listener counts it down
+     * once {@link #isDone} is true for the session, and it is counted down for every session when the shared budget
+     * runs out.
+     */
+    public CountDownLatch newSessionSignal() {
+        CountDownLatch sessionSignal = new CountDownLatch(1);
+        sessionSignals.add(sessionSignal);
+        if (budgetUsed.get() >= budget || isExpired()) {
+            sessionSignal.countDown();
+        }
+        return sessionSignal;
+    }
+
+    /**
+     * Blocks until the session's signal fires or the duration elapses, without polling.
+     */
+    public void awaitDone(CountDownLatch sessionSignal) throws InterruptedException {
+        if (endNanos == UNBOUNDED) {
+            sessionSignal.await();
+        } else {
+            sessionSignal.await(endNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Ends the run now, as if its duration had just elapsed.
+     */
+    public void stop() {
+        endNanos = System.nanoTime();
+        for (CountDownLatch sessionSignal : sessionSignals) {
+            sessionSignal.countDown();
+        }
+    }
+
+    public boolean isDone(long sessionCount) {
+        return sessionCount >= perSessionLimit || budgetUsed.get() >= budget || isExpired();
+    }
+
+    public boolean isExpired() {
+        return endNanos != UNBOUNDED && System.nanoTime() - endNanos >= 0;
+    }
+
+    public boolean isWarmingUp() {
+        return System.nanoTime() - measurementStartNanos < 0;
+    }
+
+    /**
+     * Bounds a receive timeout so that a blocked receive does not outlive the run.  Returns -1 for a receive with
+     * no timeout only when the run has no duration.
+     */
+    public long boundReceiveTimeout(long receiveTimeoutMS) {
+        if (endNanos == UNBOUNDED) {
+            return receiveTimeoutMS;
+        }
+        long remainingMS = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(endNanos - System.nanoTime()));
+        return receiveTimeoutMS < 0 ? remainingMS : Math.min(receiveTimeoutMS, remainingMS);
+    }
+
+    public long getMeasurementStartNanos() {
+        return measurementStartNanos;
+    }
+
+    /**
+     * Time measured so far, which is zero while still warming up.
+     */
+    public long getMeasuredNanos() {
+        return Math.max(0L, System.nanoTime() - measurementStartNanos);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the phases of a scenario file in order in one JVM, each as a {@link Phase} with its own producer and consumer
+ * arguments, and logs the results of every phase once the scenario is over.  See scenario.properties.capacity in
+ * src/main/resources for the file format.
+ */
+public class ScenarioTool {
+    static Logger LOGGER = LoggerFactory.getLogger(ScenarioTool.class);
+
+    private String scenarioPath = null; //--scenario
+    private boolean embeddedBroker = false; //--embedded-broker
+
+    private Properties scenario;
+    private final List<Phase> phases = new ArrayList<Phase>();
+
+    public static void main(String[] args) throws Exception {
+        LOGGER.info("Starting ScenarioTool");
+        ScenarioTool scenarioTool = new ScenarioTool();
+        scenarioTool.parseCommandLine(args);
+        scenarioTool.logInternalState();
+        scenarioTool.validateInternalState();
+        scenarioTool.setupScenario();
+        scenarioTool.execute();
+    }
+
+    public void setupScenario() throws Exception {
+        scenario = new Properties();
+        InputStream in = new FileInputStream(scenarioPath);
+        try {
+            scenario.load(in);
+        } finally {
+            in.close();
+        }
+
+        String phaseNames = scenario.getProperty("phases", "").trim();
+        if (phaseNames.isEmpty()) {
+            throw new Exception("Cannot run scenario " + scenarioPath + " without a phases property");
+        }
+        List<String> sharedArgs = Arrays.asList(Phase.toolArgs(Collections.<String>emptyList(),
+                scenario.getProperty("shared", "")));
+        long drainIdleMS = Long.parseLong(scenario.getProperty("drain-idle", "1000"));
+        int subscribeTimeoutSeconds = Integer.parseInt(scenario.getProperty("subscribe-timeout", "30"));
+        for (String phaseName : phaseNames.split("\\s*,\\s*")) {
+            String producer = scenario.getProperty(phaseName + ".producer");
+            String consumer = scenario.getProperty(phaseName + ".consumer");
+            if (producer == null && consumer == null) {
+                throw new Exception("Cannot run phase " + phaseName + " without a " + phaseName + ".producer or " +
+                        phaseName + ".consumer property");
+            }
+            int durationSeconds = Integer.parseInt(scenario.getProperty(phaseName + ".duration", "0"));
+            long phaseDrainIdleMS = Long.parseLong(scenario.getProperty(phaseName + ".drain-idle",
+                    Long.toString(drainIdleMS)));
+            if (durationSeconds < 0 || phaseDrainIdleMS <= 0) {
+                throw new Exception("Cannot set a negative duration or a drain-idle of zero or less in phase " +
+                        phaseName);
+            }
+            phases.add(new Phase(phaseName, producer != null ? Phase.toolArgs(sharedArgs, producer) : null,
+                    consumer != null ? Phase.toolArgs(sharedArgs, consumer) : null, durationSeconds, phaseDrainIdleMS,
+                    subscribeTimeoutSeconds));
+        }
+        LOGGER.info("Loaded {} phases from {}", phases.size(), scenarioPath);
+    }
+
+    public void execute() throws Exception {
+        Connection brokerHolder = null;
+        if (embeddedBroker) {
+            PerfTool.useEmbeddedBroker();
+            //The embedded broker stops with its last connection, which would lose what one phase leaves queued for the next
+            brokerHolder = new ActiveMQConnectionFactory(PerfTool.EMBEDDED_BROKER_URL).createConnection();
+        }
+        try {
+            for (int p = 0; p < phases.size(); p++) {
+                Phase phase = phases.get(p);
+                LOGGER.info("Starting phase {} of {}: {}", new Object[] {p + 1, phases.size(), phase.getName()});
+                phase.execute();
+                phase.logResults(LOGGER);
+            }
+        } finally {
+            if (brokerHolder != null) {
+                brokerHolder.close();
+            }
+        }
+        LOGGER.info("Scenario {} finished, results by phase:", scenarioPath);
+        for (Phase phase : phases) {
+            phase.logResults(LOGGER);
+        }
+    }
+
+    public void parseCommandLine(String[] args) {
+        CommandLineParser parser = new PosixParser();
+
+        Options options = new Options();
+
+        Option helpOpt = OptionBuilder.withLongOpt("help")
+                .withDescription("show help")
+                .create("h");
+        options.addOption(helpOpt);
+
+        Option scenarioOpt = OptionBuilder.withLongOpt("scenario")
+                .withArgName("file")
+                .hasArg()
+                .withDescription("properties file listing the phases to run and their producer and consumer arguments")
+                .create();
+        options.addOption(scenarioOpt);
+
+        Option embeddedBrokerOpt = OptionBuilder.withLongOpt("embedded-broker")
+                .withDescription("run against a non-persistent ActiveMQ broker inside this JVM that lives for the " +
+                        "whole scenario, instead of the provider in jndi.properties")
+                .create();
+        options.addOption(embeddedBrokerOpt);
+
+        try {
+            // parse the command line arguments
+            CommandLine line = parser.parse(options, args);
+
+            if (line.hasOption("h")) {
+                // automatically generate the help statement
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp("ScenarioTool", options, true);
+                System.exit(0);
+            }
+
+            if(line.hasOption("scenario")) {
+                scenarioPath = line.getOptionValue("scenario");
+            }
+
+            if(line.hasOption("embedded-broker")) {
+                embeddedBroker = true;
+            }
+        } catch (ParseException exp) {
+            LOGGER.error("Commandline parsing exception: " + exp.getMessage(), exp);
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("ScenarioTool", options, true);
+            System.exit(-1);
+        }
+    }
+
+    public void logInternalState() {
+        LOGGER.info("Internal state: scenarioPath = {}, embeddedBroker = {}", scenarioPath, embeddedBroker);
+    }
+
+    private void validateInternalState() throws Exception {
+        if(scenarioPath == null) {
+            throw new Exception("Cannot run without a --scenario file");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the records of a {@link SegmentedLogWriter} log, or of a single record file such as a browse export, in
+ * order.  Each segment is memory-mapped read only and records are handed out as views of the mapping, so reading
+ * copies nothing.  A single mapping is limited to 2GB, so larger files are mapped in windows that slide forward as
+ * they are read.  Sessions sharing a replay share one reader.
+ */
+public class SegmentedLogReader implements Closeable {
+    static final long MAX_WINDOW_BYTES = Integer.MAX_VALUE;
+
+    private final List<File> segments;
+    private final long maxWindowBytes;
+    private int nextSegment;
+    private RandomAccessFile file;
+    private long segmentLength;
+    private long windowStart;
+    private MappedByteBuffer window;
+
+    public SegmentedLogReader(File path) throws IOException {
+        this(path, MAX_WINDOW_BYTES);
+    }
+
+    /**
+     * @param maxWindowBytes largest mapping to make, which must hold the longest record
+     */
+    SegmentedLogReader(File path, long maxWindowBytes) throws IOException {
+        this.maxWindowBytes = maxWindowBytes;
+        if (path.isDirectory()) {
+            segments = listSegments(path);
+        } else {
+            segments = new ArrayList<File>();
+            segments.add(path);
+        }
+        if (segments.isEmpty()) {
+            throw new IOException("No log segments found at " + path);
+        }
+    }
+
+    static List<File> listSegments(File directory) {
+        List<File> segments = new ArrayList<File>();
+        File[] children = directory.listFiles();
+        if (children != null) {
+            //The segment numbers are zero padded so name order is log order
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isFile() && child.getName().endsWith(SegmentedLogWriter.SEGMENT_SUFFIX)) {
+                    segments.add(child);
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Returns a view of the next record, or null at the end of the log.
+     */
+    public synchronized ByteBuffer next() throws IOException {
+        while (remainingInSegment() < 4) {
+            if (!openNextSegment()) {
+                return null;
+            }
+        }
+        ensureMapped(4);
+        int length = window.getInt();
+        if (length < 0 || length > remainingInSegment()) {
+            throw new IOException("Corrupt record of length " + length + " in " + segments.get(nextSegment - 1));
+        }
+        ensureMapped(length);
+        ByteBuffer record = window.slice();
+        record.limit(length);
+        window.position(window.position() + length);
+        return record;
+    }
+
+    private long remainingInSegment() {
+        return window == null ? 0 : segmentLength - windowStart - window.position();
+    }
+
+    /**
+     * Slides the window forward to start at the current position when the next bytes run past its end.  A window
+     * holds any whole record, so one move is always enough.
+     */
+    private void ensureMapped(int bytes) throws IOException {
+        if (window.remaining() < bytes) {
+            mapWindow(windowStart + window.position());
+        }
+    }
+
+    private void mapWindow(long start) throws IOException {
+        windowStart = start;
+        window = file.getChannel().map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(maxWindowBytes, segmentLength - start));
+    }
+
+    private boolean openNextSegment() throws IOException {
+        closeSegment();
+        if (nextSegment >= segments.size()) {
+            return false;
+        }
+        file = new RandomAccessFile(segments.get(nextSegment++), "r");
+        segmentLength = file.length();
+        mapWindow(0);
+        return true;
+    }
+
+    private void closeSegment() throws IOException {
+        //The mapping stays valid after the file is closed so handed out records remain readable
+        window = null;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeSegment();
+        nextSegment = segments.size();
+    }
+}
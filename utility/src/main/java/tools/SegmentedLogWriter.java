@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Append-only message log split into numbered segment files of a bounded size.  Sessions encode on their own
+ * {@link Appender} and only the append of the finished record is serialized.
+ */
+public class SegmentedLogWriter implements Closeable {
+    static final String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final long segmentBytes;
+    private final boolean mapped;
+    private RecordFileWriter segment;
+    private int segmentIndex;
+    private long recordsWritten;
+    private long bytesWritten;
+
+    public SegmentedLogWriter(File directory, long segmentBytes, boolean mapped) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create log directory " + directory);
+        }
+        if (!SegmentedLogReader.listSegments(directory).isEmpty()) {
+            throw new IOException("Log directory " + directory + " already contains a recording");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.mapped = mapped;
+    }
+
+    public Appender newAppender() {
+        return new Appender();
+    }
+
+    synchronized void append(byte[] record, int length) throws IOException {
+        if (segment == null || segment.getBytesWritten() >= segmentBytes) {
+            roll();
+        }
+        segment.write(record, length);
+        recordsWritten++;
+        bytesWritten += 4 + length;
+    }
+
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        File file = new File(directory, String.format("segment-%06d%s", segmentIndex++, SEGMENT_SUFFIX));
+        segment = RecordFileWriter.open(file, mapped);
+    }
+
+    public synchronized long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segmentIndex;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+    }
+
+    /**
+     * Encodes messages for one session, so the encoding buffer needs no locking.
+     */
+    public class Appender {
+        private final MessageCodec codec = new MessageCodec();
+
+        public void append(Message message, long arrivalMicros) throws JMSException, IOException {
+            int length = codec.encode(message, arrivalMicros);
+            SegmentedLogWriter.this.append(codec.getRecord(), length);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the producer sequence numbers stamped by ProducerTool for loss and duplication.  Each producer keeps a bitmap
+ * of the sequences seen above its highest contiguous one, so in-order traffic costs a few words of memory no matter how
+ * many messages flow and nothing is boxed per message.  Queue consumers share one set of sequences since each message
+ * goes to one of them, while every topic subscription gets its own because each one receives its own copy.
+ */
+public class SequenceTracker {
+    //Sequences this far beyond the oldest missing one give up waiting for it and count it as lost
+    private static final int MAX_WINDOW_WORDS = 1 << 18;
+    private static final int INITIAL_WINDOW_WORDS = 16;
+    private static final int PRODUCER_LINE_LIMIT = 64;
+    private static final int GAP_RANGES_PER_PRODUCER = 5;
+
+    //Queue consumers are tracked under the empty subscription
+    private static final String SHARED = "";
+
+    private final ConcurrentMap<String, ConcurrentMap<String, ProducerSequences>> subscriptions =
+            new ConcurrentHashMap<String, ConcurrentMap<String, ProducerSequences>>();
+    private final AtomicLong redelivered = new AtomicLong();
+    private final AtomicLong unstamped = new AtomicLong();
+
+    /**
+     * @param subscription the topic subscription the message was delivered to, or null for a queue
+     * @param producerId the stamped producer, or null for a message that was not sent by ProducerTool
+     * @param redelivered the JMSRedelivered flag of the message
+     */
+    public void onMessage(String subscription, String producerId, long sequence, boolean redelivered) {
+        if (redelivered) {
+            this.redelivered.incrementAndGet();
+        }
+        if (producerId == null) {
+            unstamped.incrementAndGet();
+            return;
+        }
+        String key = subscription != null ? subscription : SHARED;
+        ConcurrentMap<String, ProducerSequences> producers = subscriptions.get(key);
+        if (producers == null) {
+            ConcurrentMap<String, ProducerSequences> created = new ConcurrentHashMap<String, ProducerSequences>();
+            producers = subscriptions.putIfAbsent(key, created);
+            if (producers == null) {
+                producers = created;
+            }
+        }
+        ProducerSequences sequences = producers.get(producerId);
+        if (sequences == null) {
+            ProducerSequences created = new ProducerSequences(producerId, subscription);
+            sequences = producers.putIfAbsent(producerId, created);
+            if (sequences == null) {
+                sequences = created;
+            }
+        }
+        sequences.onSequence(sequence, redelivered);
+    }
+
+    public long getDuplicates() {
+        long duplicates = 0;
+        for (ProducerSequences sequences : allProducers()) {
+            synchronized (sequences) {
+                duplicates += sequences.duplicates;
+            }
+        }
+        return duplicates;
+    }
+
+    public long getMissing() {
+        long missing = 0;
+        for (ProducerSequences sequences : allProducers()) {
+            synchronized (sequences) {
+                missing += sequences.getMissing();
+            }
+        }
+        return missing;
+    }
+
+    private List<ProducerSequences> allProducers() {
+        List<ProducerSequences> all = new ArrayList<ProducerSequences>();
+        for (ConcurrentMap<String, ProducerSequences> producers : subscriptions.values()) {
+            all.addAll(producers.values());
+        }
+        return all;
+    }
+
+    public void log(Logger logger) {
+        List<ProducerSequences> all = allProducers();
+        Set<String> producerIds = new HashSet<String>();
+        for (ConcurrentMap<String, ProducerSequences> producers : subscriptions.values()) {
+            producerIds.addAll(producers.keySet());
+        }
+        long received = 0;
+        long missing = 0;
+        long duplicates = 0;
+        long unflaggedDuplicates = 0;
+        long late = 0;
+        List<ProducerSequences> failing = new ArrayList<ProducerSequences>();
+        for (ProducerSequences sequences : all) {
+            synchronized (sequences) {
+                received += sequences.received;
+                missing += sequences.getMissing();
+                duplicates += sequences.duplicates;
+                unflaggedDuplicates += sequences.unflaggedDuplicates;
+                late += sequences.late;
+                if (sequences.getMissing() > 0 || sequences.duplicates > 0 || sequences.late > 0) {
+                    failing.add(sequences);
+                }
+            }
+        }
+        int lines = all.size() > PRODUCER_LINE_LIMIT ? Math.min(failing.size(), PRODUCER_LINE_LIMIT) : all.size();
+        List<ProducerSequences> listed = all.size() > PRODUCER_LINE_LIMIT ? failing : all;
+        for (int s = 0; s < lines; s++) {
+            ProducerSequences sequences = listed.get(s);
+            synchronized (sequences) {
+                logger.info("Producer {}{} sequences up to {}: {} received, {} missing {}, {} duplicates, {} late",
+                        new Object[] {sequences.producerId,
+                                sequences.subscription != null ? " on " + sequences.subscription : "",
+                                sequences.highest, sequences.received,
+                                sequences.getMissing(), sequences.describeGaps(), sequences.duplicates, sequences.late});
+            }
+        }
+        if (lines < listed.size()) {
+            logger.info("{} more producers with missing or duplicate messages not listed", listed.size() - lines);
+        }
+        int topicSubscriptions = subscriptions.size() - (subscriptions.containsKey(SHARED) ? 1 : 0);
+        logger.info("Verified {} messages from {} producers{}: {} missing, {} duplicates ({} not flagged as " +
+                "redelivered), {} too late to classify, {} redelivered, {} without a sequence", new Object[] {received,
+                producerIds.size(), topicSubscriptions > 0 ? " on " + topicSubscriptions + " topic subscriptions" : "",
+                missing, duplicates, unflaggedDuplicates, late, redelivered.get(), unstamped.get()});
+    }
+
+    private static class ProducerSequences {
+        final String producerId;
+        final String subscription;
+        //Bit i of the window is sequence base + i, and every sequence below base has been resolved
+        long base = 1;
+        long[] window = new long[INITIAL_WINDOW_WORDS];
+        int usedWords;
+        long highest;
+        long received;
+        long expired;
+        long duplicates;
+        long unflaggedDuplicates;
+        long late;
+        //Missing ranges that fell out of the window, kept only for the log line
+        final List<long[]> expiredRanges = new ArrayList<long[]>();
+
+        ProducerSequences(String producerId, String subscription) {
+            this.producerId = producerId;
+            this.subscription = subscription;
+        }
+
+        synchronized void onSequence(long sequence, boolean redelivered) {
+            if (sequence < base) {
+                //Once gaps have been given up on a sequence below the window may be one of them arriving late
+                if (expired > 0) {
+                    late++;
+                } else {
+                    onDuplicate(redelivered);
+                }
+                return;
+            }
+            long offset = sequence - base;
+            if (offset >= (long) window.length * 64) {
+                ensureWindow(offset);
+                offset = sequence - base;
+            }
+            int word = (int) (offset >>> 6);
+            long bit = 1L << (offset & 63);
+            if ((window[word] & bit) != 0) {
+                onDuplicate(redelivered);
+                return;
+            }
+            window[word] |= bit;
+            if (word >= usedWords) {
+                usedWords = word + 1;
+            }
+            received++;
+            if (sequence > highest) {
+                highest = sequence;
+            }
+            if (word == 0 && window[0] == -1L) {
+                slideFullWords();
+            }
+        }
+
+        private void onDuplicate(boolean redelivered) {
+            duplicates++;
+            if (!redelivered) {
+                unflaggedDuplicates++;
+            }
+        }
+
+        private void ensureWindow(long offset) {
+            long neededWords = (offset >>> 6) + 1;
+            if (neededWords <= MAX_WINDOW_WORDS) {
+                int size = window.length;
+                while (size < neededWords) {
+                    size *= 2;
+                }
+                long[] grown = new long[size];
+                System.arraycopy(window, 0, grown, 0, usedWords);
+                window = grown;
+                return;
+            }
+            if (window.length < MAX_WINDOW_WORDS) {
+                long[] grown = new long[MAX_WINDOW_WORDS];
+                System.arraycopy(window, 0, grown, 0, usedWords);
+                window = grown;
+            }
+            //Give up on the oldest words so the new sequence fits, counting their unseen sequences as lost
+            int dropWords = (int) Math.min(neededWords - MAX_WINDOW_WORDS, usedWords);
+            for (int w = 0; w < dropWords; w++) {
+                expireWord(base + (long) w * 64, window[w]);
+            }
+            shift(dropWords);
+            long skippedWords = neededWords - MAX_WINDOW_WORDS - dropWords;
+            if (skippedWords > 0) {
+                //Nothing in the window was seen, so everything up to the new window is lost as well
+                expired += skippedWords * 64;
+                addRange(expiredRanges, base, base + skippedWords * 64 - 1);
+                base += skippedWords * 64;
+            }
+            slideFullWords();
+        }
+
+        private void expireWord(long wordBase, long bits) {
+            expired += 64 - Long.bitCount(bits);
+            for (int b = 0; b < 64 && bits != -1L; b++) {
+                if ((bits & (1L << b)) == 0) {
+                    addRange(expiredRanges, wordBase + b, wordBase + b);
+                }
+            }
+        }
+
+        private void slideFullWords() {
+            int full = 0;
+            while (full < usedWords && window[full] == -1L) {
+                full++;
+            }
+            shift(full);
+        }
+
+        private void shift(int words) {
+            if (words == 0) {
+                return;
+            }
+            System.arraycopy(window, words, window, 0, usedWords - words);
+            for (int w = usedWords - words; w < usedWords; w++) {
+                window[w] = 0;
+            }
+            usedWords -= words;
+            base += (long) words * 64;
+        }
+
+        long getMissing() {
+            long missing = expired;
+            if (highest >= base) {
+                long span = highest - base + 1;
+                long seen = 0;
+                for (int w = 0; w < usedWords; w++) {
+                    seen += Long.bitCount(window[w]);
+                }
+                missing += span - seen;
+            }
+            return missing;
+        }
+
+        String describeGaps() {
+            List<long[]> ranges = new ArrayList<long[]>(expiredRanges);
+            for (long s = base; s <= highest && ranges.size() <= GAP_RANGES_PER_PRODUCER; s++) {
+                long offset = s - base;
+                if ((window[(int) (offset >>> 6)] & (1L << (offset & 63))) == 0) {
+                    addRange(ranges, s, s);
+                }
+            }
+            if (ranges.isEmpty()) {
+                return "[]";
+            }
+            StringBuilder gaps = new StringBuilder("[");
+            for (int r = 0; r < Math.min(ranges.size(), GAP_RANGES_PER_PRODUCER); r++) {
+                long[] range = ranges.get(r);
+                gaps.append(r > 0 ? ", " : "").append(range[0]);
+                if (range[1] > range[0]) {
+                    gaps.append('-').append(range[1]);
+                }
+            }
+            return gaps.append(ranges.size() > GAP_RANGES_PER_PRODUCER ? ", ...]" : "]").toString();
+        }
+
+        private static void addRange(List<long[]> ranges, long first, long last) {
+            if (!ranges.isEmpty()) {
+                long[] previous = ranges.get(ranges.size() - 1);
+                if (previous[1] + 1 == first) {
+                    previous[1] = last;
+                    return;
+                }
+            }
+            if (ranges.size() <= GAP_RANGES_PER_PRODUCER) {
+                ranges.add(new long[] {first, last});
+            }
+        }
+    }
+}
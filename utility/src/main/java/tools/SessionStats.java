@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Recorder;
+
+/**
+ * The per-session instruments and helpers that ConsumerTool hands to its message handling.
+ */
+public class SessionStats {
+    private final Recorder latencyRecorder;
+    private final ThroughputCounters counters;
+    private final CommitBatcher batcher;
+    private final SegmentedLogWriter.Appender recordAppender;
+    private final ThreadStates.Entry threadState;
+    private final ProcessingPipeline pipeline;
+    private final PayloadDecompressor decompressor = new PayloadDecompressor();
+
+    public SessionStats(Recorder latencyRecorder, ThroughputCounters counters) {
+        this(latencyRecorder, counters, null);
+    }
+
+    public SessionStats(Recorder latencyRecorder, ThroughputCounters counters, CommitBatcher batcher) {
+        this(latencyRecorder, counters, batcher, null);
+    }
+
+    public SessionStats(Recorder latencyRecorder, ThroughputCounters counters, CommitBatcher batcher,
+                        SegmentedLogWriter.Appender recordAppender) {
+        this(latencyRecorder, counters, batcher, recordAppender, null, null);
+    }
+
+    public SessionStats(Recorder latencyRecorder, ThroughputCounters counters, CommitBatcher batcher,
+                        SegmentedLogWriter.Appender recordAppender, ThreadStates.Entry threadState,
+                        ProcessingPipeline pipeline) {
+        this.latencyRecorder = latencyRecorder;
+        this.counters = counters;
+        this.batcher = batcher;
+        this.recordAppender = recordAppender;
+        this.threadState = threadState;
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Null when end-to-end latency does not apply, such as when browsing.
+     */
+    public Recorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    public ThroughputCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * Null when messages are neither committed nor client acknowledged.
+     */
+    public CommitBatcher getBatcher() {
+        return batcher;
+    }
+
+    /**
+     * Null unless consumed messages are being recorded for replay.
+     */
+    public SegmentedLogWriter.Appender getRecordAppender() {
+        return recordAppender;
+    }
+
+    /**
+     * Null for processing workers, which are not session threads.
+     */
+    public ThreadStates.Entry getThreadState() {
+        return threadState;
+    }
+
+    /**
+     * Null unless processing stages were configured.
+     */
+    public ProcessingPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public PayloadDecompressor getDecompressor() {
+        return decompressor;
+    }
+}
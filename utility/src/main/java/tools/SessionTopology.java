@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed set of shared connections, each carrying the same number of sessions.  Every session runs on its own thread
+ * and claims its slot with {@link #nextSlot()}, so sessions are spread evenly across the connections.
+ */
+public class SessionTopology {
+    static Logger LOGGER = LoggerFactory.getLogger(SessionTopology.class);
+
+    private final Connection[] connections;
+    private final int sessionsPerConnection;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicLongArray connectionMessageCounts;
+
+    private SessionTopology(Connection[] connections, int sessionsPerConnection) {
+        this.connections = connections;
+        this.sessionsPerConnection = sessionsPerConnection;
+        this.connectionMessageCounts = new AtomicLongArray(connections.length);
+    }
+
+    public static SessionTopology open(ConnectionFactory connectionFactory, int numConnections, int sessionsPerConnection,
+                                       String clientId, boolean start) throws JMSException {
+        Connection[] connections = new Connection[numConnections];
+        SessionTopology topology = new SessionTopology(connections, sessionsPerConnection);
+        try {
+            for (int c = 0; c < numConnections; c++) {
+                connections[c] = connectionFactory.createConnection();
+                if (clientId != null) {
+                    connections[c].setClientID(clientId);
+                }
+                if (start) {
+                    connections[c].start();
+                }
+            }
+        } catch (JMSException e) {
+            topology.close();
+            throw e;
+        }
+        return topology;
+    }
+
+    public int getSessionCount() {
+        return connections.length * sessionsPerConnection;
+    }
+
+    public Slot nextSlot() {
+        int slot = nextSlot.getAndIncrement() % getSessionCount();
+        int connectionIndex = slot / sessionsPerConnection;
+        return new Slot(connections[connectionIndex], connectionIndex, slot % sessionsPerConnection);
+    }
+
+    public void addMessages(Slot slot, long count) {
+        connectionMessageCounts.addAndGet(slot.getConnectionIndex(), count);
+    }
+
+    public void logConnectionTotals(Logger logger, String verb, long elapsedNanos) {
+        for (int c = 0; c < connections.length; c++) {
+            long count = connectionMessageCounts.get(c);
+            long rate = Rates.perSecond(count, elapsedNanos);
+            logger.info("connection-{} {} {} messages in {} ms ({} msgs/s over {} sessions)", new Object[] {c, verb, count,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), rate, sessionsPerConnection});
+        }
+    }
+
+    public void close() {
+        for (Connection connection : connections) {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (JMSException e) {
+                    //Keep closing the rest so one bad connection does not leak the others
+                    LOGGER.error("JMSException closing connection", e);
+                }
+            }
+        }
+    }
+
+    public static class Slot {
+        private final Connection connection;
+        private final int connectionIndex;
+        private final int sessionIndex;
+
+        Slot(Connection connection, int connectionIndex, int sessionIndex) {
+            this.connection = connection;
+            this.connectionIndex = connectionIndex;
+            this.sessionIndex = sessionIndex;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        public int getConnectionIndex() {
+            return connectionIndex;
+        }
+
+        public int getSessionIndex() {
+            return sessionIndex;
+        }
+
+        @Override
+        public String toString() {
+            return "connection-" + connectionIndex + "/session-" + sessionIndex;
+        }
+    }
+}
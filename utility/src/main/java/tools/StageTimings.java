@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the stage timings of every {@link ProcessingPipeline} once its thread is done and logs them with the share
+ * of the processing threads' time that went into the stages.  A share near 100% means the consumers are CPU bound
+ * and more of them only helps if there are idle cores; a low share means the time goes to waiting on the broker.
+ */
+public class StageTimings {
+    private final List<String> specs;
+    private final Histogram[] stageHistograms;
+    private final long[] stageFailures;
+    private final Histogram totalHistogram = Histograms.create();
+    private int pipelines;
+
+    public StageTimings(List<String> specs) {
+        this.specs = specs;
+        this.stageHistograms = new Histogram[specs.size()];
+        this.stageFailures = new long[specs.size()];
+        for (int s = 0; s < stageHistograms.length; s++) {
+            stageHistograms[s] = Histograms.create();
+        }
+    }
+
+    public synchronized void add(ProcessingPipeline pipeline) {
+        for (int s = 0; s < stageHistograms.length; s++) {
+            stageHistograms[s].add(pipeline.getStageHistogram(s));
+            stageFailures[s] += pipeline.getStageFailures(s);
+        }
+        totalHistogram.add(pipeline.getTotalHistogram());
+        pipelines++;
+    }
+
+    public synchronized void log(Logger logger, long elapsedNanos) {
+        for (int s = 0; s < stageHistograms.length; s++) {
+            Histograms.log(logger, "Processing stage " + specs.get(s), "ns", stageHistograms[s]);
+            if (stageFailures[s] > 0) {
+                logger.info("Processing stage {} failed on {} messages", specs.get(s), stageFailures[s]);
+            }
+        }
+        Histograms.log(logger, "Processing all stages", "ns", totalHistogram);
+        long busyNanos = (long) (totalHistogram.getMean() * totalHistogram.getTotalCount());
+        double share = elapsedNanos > 0 && pipelines > 0 ? 100.0 * busyNanos / ((double) elapsedNanos * pipelines) : 0;
+        logger.info("Processing took {} ms over {} threads in {} ms, {}% of their time",
+                new Object[] {TimeUnit.NANOSECONDS.toMillis(busyNanos), pipelines,
+                        TimeUnit.NANOSECONDS.toMillis(elapsedNanos), String.format("%.1f", share)});
+    }
+}
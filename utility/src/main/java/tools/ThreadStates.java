@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * What each session thread of a tool is doing right now and since when, so that a stall shows up while it happens
+ * instead of only in the final summary.  Each entry has a single writing thread and is only written when its state
+ * changes.
+ */
+public class ThreadStates {
+    public enum State {
+        CONNECTING, SUBSCRIBING, PACING, SENDING, RECEIVING, PROCESSING, LISTENING, BROWSING, COMMITTING, DONE
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    public synchronized Entry register(String name) {
+        Entry entry = new Entry(name);
+        entries.add(entry);
+        return entry;
+    }
+
+    /**
+     * The number of threads in each state, leaving out states no thread is in.
+     */
+    public synchronized Map<String, Integer> getStateCounts() {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (Entry entry : entries) {
+            String state = entry.get().name();
+            Integer count = counts.get(state);
+            counts.put(state, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * One line per thread such as "connection-0/session-1 RECEIVING for 1250 ms".
+     */
+    public synchronized String[] describe() {
+        long nowNanos = System.nanoTime();
+        String[] lines = new String[entries.size()];
+        for (int i = 0; i < lines.length; i++) {
+            Entry entry = entries.get(i);
+            lines[i] = entry.name + " " + entry.get() + " for "
+                    + TimeUnit.NANOSECONDS.toMillis(nowNanos - entry.sinceNanos.get()) + " ms";
+        }
+        return lines;
+    }
+
+    /**
+     * The longest any thread has been in its current state, leaving out threads that are done.
+     */
+    public synchronized long getLongestStateMillis() {
+        long nowNanos = System.nanoTime();
+        long longestNanos = 0;
+        for (Entry entry : entries) {
+            if (entry.get() != State.DONE) {
+                longestNanos = Math.max(longestNanos, nowNanos - entry.sinceNanos.get());
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(longestNanos);
+    }
+
+    public static class Entry {
+        private final String name;
+        private final AtomicReference<State> state = new AtomicReference<State>(State.CONNECTING);
+        private final AtomicLong sinceNanos = new AtomicLong(System.nanoTime());
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        public void set(State newState) {
+            //Unchanged states are skipped so a thread that keeps sending pays nothing per message
+            if (state.get() != newState) {
+                sinceNanos.lazySet(System.nanoTime());
+                state.lazySet(newState);
+            }
+        }
+
+        public State get() {
+            return state.get();
+        }
+    }
+}
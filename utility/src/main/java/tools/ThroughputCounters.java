@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message, byte, error, commit and rollback counts for one session.  Each instance has a single writing thread so updates use
+ * lazySet instead of a full atomic increment; the reporting thread only needs to see the values eventually.
+ */
+public class ThroughputCounters {
+    private final String name;
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong rollbacks = new AtomicLong();
+
+    public ThroughputCounters(String name) {
+        this.name = name;
+    }
+
+    public void onMessage(long messageBytes) {
+        messages.lazySet(messages.get() + 1);
+        bytes.lazySet(bytes.get() + messageBytes);
+    }
+
+    public void onError() {
+        onErrors(1);
+    }
+
+    public void onErrors(long count) {
+        errors.lazySet(errors.get() + count);
+    }
+
+    /**
+     * Counts a session commit or a client acknowledgement since both close out a batch.
+     */
+    public void onCommit() {
+        commits.lazySet(commits.get() + 1);
+    }
+
+    /**
+     * Counts a commit that the broker rolled back instead.
+     */
+    public void onRollback() {
+        rollbacks.lazySet(rollbacks.get() + 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getCommits() {
+        return commits.get();
+    }
+
+    public long getRollbacks() {
+        return rollbacks.get();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sums the {@link ThroughputCounters} of every session and logs the aggregate message and byte rates at a fixed
+ * interval, followed by a per-session and total summary when stopped.  Logging from here instead of per message
+ * keeps the console from becoming the bottleneck of a load test.
+ */
+public class ThroughputReporter {
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private final Logger logger;
+    private final String verb;
+    private final List<ThroughputCounters> counters = new ArrayList<ThroughputCounters>();
+    private ScheduledExecutorService reporter;
+    private boolean summarizeSessions;
+    private long startNanos;
+    private long lastNanos;
+    private long lastMessages;
+    private long lastBytes;
+
+    public ThroughputReporter(Logger logger, String verb) {
+        this.logger = logger;
+        this.verb = verb;
+    }
+
+    public synchronized ThroughputCounters register(String name) {
+        ThroughputCounters sessionCounters = new ThroughputCounters(name);
+        counters.add(sessionCounters);
+        return sessionCounters;
+    }
+
+    public void start(long intervalSeconds) {
+        startNanos = System.nanoTime();
+        lastNanos = startNanos;
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "throughput-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                logInterval();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Replaces the per-session summary lines with the distribution of per-session rates, for runs with too many
+     * sessions to read one line each.
+     */
+    public synchronized void setSummarizeSessions(boolean summarizeSessions) {
+        this.summarizeSessions = summarizeSessions;
+    }
+
+    /**
+     * Moves the start of the summary's measurement window, for example past a warmup period.
+     */
+    public synchronized void setStartNanos(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Messages counted so far across all sessions, excluding warmup.
+     */
+    public synchronized long getTotalMessages() {
+        long messages = 0;
+        for (ThroughputCounters sessionCounters : counters) {
+            messages += sessionCounters.getMessages();
+        }
+        return messages;
+    }
+
+    /**
+     * Sums the counters of every session as they are right now, for readers outside the reporting interval.
+     */
+    public synchronized Totals getTotals() {
+        Totals totals = new Totals();
+        for (ThroughputCounters sessionCounters : counters) {
+            totals.messages += sessionCounters.getMessages();
+            totals.bytes += sessionCounters.getBytes();
+            totals.errors += sessionCounters.getErrors();
+            totals.commits += sessionCounters.getCommits();
+            totals.rollbacks += sessionCounters.getRollbacks();
+        }
+        return totals;
+    }
+
+    public void stop() throws InterruptedException {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        logSummary();
+    }
+
+    synchronized void logInterval() {
+        long nowNanos = System.nanoTime();
+        Totals totals = getTotals();
+        long messages = totals.messages;
+        long bytes = totals.bytes;
+        long elapsedNanos = nowNanos - lastNanos;
+        logger.info("Interval {} {} messages ({} msgs/s, {} MB/s), total {} messages, {} errors, {} commits",
+                new Object[] {verb, messages - lastMessages, Rates.perSecond(messages - lastMessages, elapsedNanos),
+                        formatMB(Rates.perSecond(bytes - lastBytes, elapsedNanos)), messages, totals.errors, totals.commits});
+        lastNanos = nowNanos;
+        lastMessages = messages;
+        lastBytes = bytes;
+    }
+
+    synchronized void logSummary() {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long messages = 0;
+        long bytes = 0;
+        long errors = 0;
+        long commits = 0;
+        Histogram sessionRates = Histograms.create();
+        long idleSessions = 0;
+        for (ThroughputCounters sessionCounters : counters) {
+            if (summarizeSessions) {
+                sessionRates.recordValue(Rates.perSecond(sessionCounters.getMessages(), elapsedNanos));
+                if (sessionCounters.getMessages() == 0) {
+                    idleSessions++;
+                }
+            } else if (counters.size() > 1) {
+                logSession(sessionCounters.getName(), sessionCounters.getMessages(), sessionCounters.getBytes(),
+                        sessionCounters.getErrors(), sessionCounters.getCommits(), elapsedNanos);
+            }
+            messages += sessionCounters.getMessages();
+            bytes += sessionCounters.getBytes();
+            errors += sessionCounters.getErrors();
+            commits += sessionCounters.getCommits();
+        }
+        if (summarizeSessions) {
+            Histograms.log(logger, "Per-session " + verb + " rate", "msgs/s", sessionRates);
+            logger.info("{} of {} sessions {} no messages", new Object[] {idleSessions, counters.size(), verb});
+        }
+        logSession("Total", messages, bytes, errors, commits, elapsedNanos);
+    }
+
+    private void logSession(String name, long messages, long bytes, long errors, long commits, long elapsedNanos) {
+        logger.info("{} {} {} messages, {} MB in {} ms ({} msgs/s, {} MB/s), {} errors, {} commits",
+                new Object[] {name, verb, messages, formatMB(bytes), TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                        Rates.perSecond(messages, elapsedNanos), formatMB(Rates.perSecond(bytes, elapsedNanos)), errors, commits});
+    }
+
+    private static String formatMB(long bytes) {
+        return String.format("%.2f", bytes / BYTES_PER_MB);
+    }
+
+    public static class Totals {
+        private long messages;
+        private long bytes;
+        private long errors;
+        private long commits;
+        private long rollbacks;
+
+        public long getMessages() {
+            return messages;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getCommits() {
+            return commits;
+        }
+
+        public long getRollbacks() {
+            return rollbacks;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes a tool's {@link ThroughputReporter}, {@link LatencyTracker} and {@link ThreadStates} as an MXBean named
+ * tools:type=&lt;tool&gt;.  Nothing here runs on the sending or receiving threads; every reading sums the per-session
+ * counters and swaps out the per-session latency recorders on the JMX thread.
+ */
+public class ToolMetrics implements ToolMetricsMXBean {
+    static Logger LOGGER = LoggerFactory.getLogger(ToolMetrics.class);
+    private static final long MIN_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private final ThroughputReporter throughputReporter;
+    private final LatencyTracker latencyTracker;
+    private final ThreadStates threadStates;
+    private ObjectName objectName;
+    private long lastSampleNanos = System.nanoTime();
+    private long lastMessages;
+    private long lastBytes;
+    private long messageRate;
+    private double megabyteRate;
+    private Histogram recentLatency = Histograms.create();
+
+    public ToolMetrics(ThroughputReporter throughputReporter, LatencyTracker latencyTracker, ThreadStates threadStates) {
+        this.throughputReporter = throughputReporter;
+        this.latencyTracker = latencyTracker;
+        this.threadStates = threadStates;
+    }
+
+    /**
+     * Registers with the platform MBean server.  A second tool of the same type in one JVM gets an instance key
+     * added to its name.  Failing to register only costs the live view so it is logged rather than thrown.
+     */
+    public void register(String type) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("tools:type=" + type);
+            for (int instance = 2; objectName == null; instance++) {
+                try {
+                    server.registerMBean(this, name);
+                    objectName = name;
+                } catch (InstanceAlreadyExistsException e) {
+                    name = new ObjectName("tools:type=" + type + ",instance=" + instance);
+                }
+            }
+            LOGGER.info("Registered JMX metrics as {}", objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Could not register JMX metrics for " + type + ": " + e.getMessage(), e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Could not unregister JMX metrics " + objectName + ": " + e.getMessage(), e);
+        }
+        objectName = null;
+    }
+
+    private synchronized void sample() {
+        long nowNanos = System.nanoTime();
+        long elapsedNanos = nowNanos - lastSampleNanos;
+        if (elapsedNanos < MIN_SAMPLE_NANOS) {
+            return;
+        }
+        ThroughputReporter.Totals totals = throughputReporter.getTotals();
+        messageRate = Rates.perSecond(totals.getMessages() - lastMessages, elapsedNanos);
+        megabyteRate = (totals.getBytes() - lastBytes) * 1000000000.0 / elapsedNanos / BYTES_PER_MB;
+        recentLatency = latencyTracker.takeRecentHistogram();
+        lastSampleNanos = nowNanos;
+        lastMessages = totals.getMessages();
+        lastBytes = totals.getBytes();
+    }
+
+    private synchronized Histogram getRecentLatency() {
+        sample();
+        return recentLatency;
+    }
+
+    private static long percentile(Histogram histogram, double percentile) {
+        return histogram.getTotalCount() > 0 ? histogram.getValueAtPercentile(percentile) : 0;
+    }
+
+    @Override
+    public long getMessages() {
+        return throughputReporter.getTotals().getMessages();
+    }
+
+    @Override
+    public long getBytes() {
+        return throughputReporter.getTotals().getBytes();
+    }
+
+    @Override
+    public long getCommits() {
+        return throughputReporter.getTotals().getCommits();
+    }
+
+    @Override
+    public long getRollbacks() {
+        return throughputReporter.getTotals().getRollbacks();
+    }
+
+    @Override
+    public long getErrors() {
+        return throughputReporter.getTotals().getErrors();
+    }
+
+    @Override
+    public synchronized long getMessageRate() {
+        sample();
+        return messageRate;
+    }
+
+    @Override
+    public synchronized double getMegabyteRate() {
+        sample();
+        return megabyteRate;
+    }
+
+    @Override
+    public String getLatencyLabel() {
+        return latencyTracker.getLabel();
+    }
+
+    @Override
+    public long getRecentLatencyCount() {
+        return getRecentLatency().getTotalCount();
+    }
+
+    @Override
+    public long getRecentLatencyP50Micros() {
+        return percentile(getRecentLatency(), 50.0);
+    }
+
+    @Override
+    public long getRecentLatencyP99Micros() {
+        return percentile(getRecentLatency(), 99.0);
+    }
+
+    @Override
+    public long getRecentLatencyP999Micros() {
+        return percentile(getRecentLatency(), 99.9);
+    }
+
+    @Override
+    public long getRecentLatencyMaxMicros() {
+        return getRecentLatency().getMaxValue();
+    }
+
+    @Override
+    public long getTotalLatencyP99Micros() {
+        return percentile(latencyTracker.getTotalHistogram(), 99.0);
+    }
+
+    @Override
+    public Map<String, Integer> getThreadStateCounts() {
+        return threadStates.getStateCounts();
+    }
+
+    @Override
+    public String[] getThreadStates() {
+        return threadStates.describe();
+    }
+
+    @Override
+    public long getLongestThreadStateMillis() {
+        return threadStates.getLongestStateMillis();
+    }
+}
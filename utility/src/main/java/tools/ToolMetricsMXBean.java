@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.util.Map;
+
+/**
+ * The live view of a running ProducerTool or ConsumerTool in JConsole or VisualVM.  Rates and the recent latency
+ * percentiles cover the time since the previous reading, and are refreshed at most once a second so that several
+ * open consoles see the same values.
+ */
+public interface ToolMetricsMXBean {
+    long getMessages();
+
+    long getBytes();
+
+    long getCommits();
+
+    long getRollbacks();
+
+    long getErrors();
+
+    long getMessageRate();
+
+    double getMegabyteRate();
+
+    String getLatencyLabel();
+
+    long getRecentLatencyCount();
+
+    long getRecentLatencyP50Micros();
+
+    long getRecentLatencyP99Micros();
+
+    long getRecentLatencyP999Micros();
+
+    long getRecentLatencyMaxMicros();
+
+    long getTotalLatencyP99Micros();
+
+    Map<String, Integer> getThreadStateCounts();
+
+    String[] getThreadStates();
+
+    long getLongestThreadStateMillis();
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+/**
+ * Counts the UTF-8 encoded size of text bodies so that text and bytes messages report sizes in the same unit,
+ * without encoding every received message just to measure it.
+ */
+public final class Utf8 {
+    private Utf8() {
+    }
+
+    /**
+     * The number of bytes {@code text.getBytes(StandardCharsets.UTF_8)} would return.  An unpaired surrogate counts
+     * as the single replacement byte the encoder writes for it.
+     */
+    public static int encodedLength(String text) {
+        int length = text.length();
+        int encodedLength = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                encodedLength += 1;
+            } else if (!Character.isSurrogate(c)) {
+                encodedLength += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                //Four bytes for the two chars of the pair
+                encodedLength += 2;
+                i++;
+            }
+        }
+        return encodedLength;
+    }
+}
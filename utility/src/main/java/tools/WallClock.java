@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+/**
+ * Microsecond wall clock built from a single currentTimeMillis anchor plus System.nanoTime deltas.  Within one JVM
+ * the readings are monotonic; across JVMs they are only as aligned as the hosts' system clocks.
+ */
+public final class WallClock {
+    private static final long ANCHOR_MICROS = System.currentTimeMillis() * 1000L;
+    private static final long ANCHOR_NANOS = System.nanoTime();
+
+    private WallClock() {
+    }
+
+    public static long currentTimeMicros() {
+        return ANCHOR_MICROS + (System.nanoTime() - ANCHOR_NANOS) / 1000L;
+    }
+}
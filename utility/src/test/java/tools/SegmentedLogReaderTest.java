@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Reads record files through windows far smaller than the 2GB a real mapping is limited to, so that records
+ * straddling a window boundary are covered without writing a multi-gigabyte file.
+ */
+public class SegmentedLogReaderTest {
+    private static final int RECORDS = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsRecordsAcrossWindowBoundaries() throws Exception {
+        File file = folder.newFile("export.log");
+        RecordFileWriter writer = RecordFileWriter.open(file, false);
+        for (int r = 0; r < RECORDS; r++) {
+            writer.write(record(r), r % 40);
+        }
+        writer.close();
+
+        //Odd sized windows so the length prefixes and the bodies both get split
+        for (long windowBytes = 43; windowBytes <= 131; windowBytes += 11) {
+            SegmentedLogReader reader = new SegmentedLogReader(file, windowBytes);
+            for (int r = 0; r < RECORDS; r++) {
+                ByteBuffer read = reader.next();
+                assertEquals("record " + r + " with " + windowBytes + " byte windows", r % 40, read.remaining());
+                for (int i = 0; i < r % 40; i++) {
+                    assertEquals(record(r)[i], read.get(i));
+                }
+            }
+            assertNull(reader.next());
+            reader.close();
+        }
+    }
+
+    private static byte[] record(int r) {
+        byte[] record = new byte[40];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = (byte) (r + i);
+        }
+        return record;
+    }
+}
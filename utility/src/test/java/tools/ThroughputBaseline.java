@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Minimum message rates per test case, loaded from throughput-baseline.properties.  A case fails when it runs slower
+ * than its baseline by more than the tolerance, which the throughput.tolerance system property can override for
+ * slower build machines.
+ */
+class ThroughputBaseline {
+    private final Properties baselines;
+    private final double tolerance;
+
+    private ThroughputBaseline(Properties baselines, double tolerance) {
+        this.baselines = baselines;
+        this.tolerance = tolerance;
+    }
+
+    static ThroughputBaseline load() throws IOException {
+        Properties baselines = new Properties();
+        InputStream in = ThroughputBaseline.class.getResourceAsStream("/throughput-baseline.properties");
+        assertNotNull("throughput-baseline.properties is missing from the test classpath", in);
+        try {
+            baselines.load(in);
+        } finally {
+            in.close();
+        }
+        String tolerance = System.getProperty("throughput.tolerance", baselines.getProperty("tolerance", "0.5"));
+        return new ThroughputBaseline(baselines, Double.parseDouble(tolerance));
+    }
+
+    void check(String testCase, long measuredRate) {
+        String baseline = baselines.getProperty(testCase);
+        assertNotNull("No throughput baseline for " + testCase, baseline);
+        long minimumRate = (long) (Long.parseLong(baseline) * (1.0 - tolerance));
+        ToolsIntegrationTest.LOGGER.info("{} ran at {} msgs/s against a baseline of {} msgs/s (minimum {})",
+                new Object[] {testCase, measuredRate, baseline, minimumRate});
+        assertTrue(testCase + " ran at " + measuredRate + " msgs/s, below its baseline of " + baseline +
+                " msgs/s by more than " + (int) (tolerance * 100) + "%", measuredRate >= minimumRate);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs ProducerTool and ConsumerTool against an embedded ActiveMQ broker over the vm:// transport, checking that
+ * every case delivers the expected messages and keeps up with its throughput baseline.
+ */
+public class ToolsIntegrationTest {
+    static Logger LOGGER = LoggerFactory.getLogger(ToolsIntegrationTest.class);
+    private static final String BROKER_NAME = "tools-test";
+    private static final int MESSAGES = 20000;
+    private static final long DRAIN_IDLE_MS = 500;
+    //Keeps each consumer session's wait after a phase is stopped short
+    private static final String CONSUMER_RECEIVE_TIMEOUT = " -r 100";
+    private static final List<String> NO_SHARED_ARGS = Collections.emptyList();
+
+    private static BrokerService broker;
+    private static ThroughputBaseline baseline;
+
+    @BeforeClass
+    public static void startBroker() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName(BROKER_NAME);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        broker.waitUntilStarted();
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, "org.apache.activemq.jndi.ActiveMQInitialContextFactory");
+        //With the default async vm:// transport, closing a connection that still has queued sends can wait out the
+        //broker's one second task runner shutdown and stall the whole case, so commands are delivered inline instead
+        System.setProperty(Context.PROVIDER_URL, "vm://" + BROKER_NAME + "?create=false&async=false");
+        baseline = ThroughputBaseline.load();
+        //Every tool registers its metrics here, so the platform MBean server's startup is kept out of the first case
+        ManagementFactory.getPlatformMBeanServer();
+        //A discarded run through both tools so that class loading and JIT compilation do not count against whichever
+        //case happens to run first
+        run("warmup", "-q -n TEST.WARMUP -m " + MESSAGES, "-q -n TEST.WARMUP");
+    }
+
+    @AfterClass
+    public static void stopBroker() throws Exception {
+        System.clearProperty(Context.INITIAL_CONTEXT_FACTORY);
+        System.clearProperty(Context.PROVIDER_URL);
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+    @Test
+    public void queue() throws Exception {
+        Phase phase = run("queue", "-q -n TEST.QUEUE -m " + MESSAGES, "-q -n TEST.QUEUE");
+        assertEquals(MESSAGES, phase.getSentMessages());
+        assertEquals(MESSAGES, phase.getReceivedMessages());
+        baseline.check("queue", phase.getReceiveRate());
+    }
+
+    @Test
+    public void topicFansOutToEverySubscriber() throws Exception {
+        Phase phase = run("topic", "-n TEST.TOPIC -m " + MESSAGES, "-n TEST.TOPIC -g 2");
+        assertEquals(MESSAGES, phase.getSentMessages());
+        assertEquals(2 * MESSAGES, phase.getReceivedMessages());
+        baseline.check("topic", phase.getReceiveRate());
+    }
+
+    @Test
+    public void topicSequencesAreVerifiedPerSubscriber() throws Exception {
+        //Both subscribers get every message, which must not be mistaken for duplicates
+        Phase phase = run("topic-sequences", "-n TEST.TOPIC_SEQUENCES -m " + MESSAGES,
+                "-n TEST.TOPIC_SEQUENCES -g 2 --verify-sequences");
+        assertEquals(2 * MESSAGES, phase.getReceivedMessages());
+        assertEquals(0, phase.getSequenceTracker().getDuplicates());
+        assertEquals(0, phase.getSequenceTracker().getMissing());
+    }
+
+    @Test
+    public void topicGroupsAreTrackedPerSubscriber() throws Exception {
+        //Each subscriber receives every group in order, which must not count as reordering or a split group
+        Phase phase = run("topic-groups", "-n TEST.TOPIC_GROUPS --group-count 4 -m " + MESSAGES,
+                "-n TEST.TOPIC_GROUPS -g 2 --track-groups");
+        assertEquals(2 * MESSAGES, phase.getReceivedMessages());
+        assertEquals(0, phase.getGroupTracker().getOutOfOrder());
+        assertEquals(0, phase.getGroupTracker().getSplitGroups());
+    }
+
+    @Test
+    public void failedConfigureUnregistersMetrics() throws Exception {
+        //The connection factory lookup comes after the metrics are registered
+        try {
+            new ConsumerTool().configure(new String[] {"-f", "missingConnectionFactory"});
+            fail("Configure found a connection factory that does not exist");
+        } catch (NamingException expected) {
+            LOGGER.info("Configure failed as expected: {}", expected.getMessage());
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("tools:type=ConsumerTool")));
+    }
+
+    @Test
+    public void durableSubscriberReceivesWhatWasSentWhileOffline() throws Exception {
+        String subscriber = "-n TEST.DURABLE -c durable-test -d -s DurableSubscription";
+        assertEquals(MESSAGES, run("durable-online", "-n TEST.DURABLE -d -m " + MESSAGES, subscriber).getReceivedMessages());
+        assertEquals(MESSAGES, run("durable-offline", "-n TEST.DURABLE -d -m " + MESSAGES, null).getSentMessages());
+        Phase phase = run("durable-backlog", null, subscriber);
+        assertEquals(MESSAGES, phase.getReceivedMessages());
+        baseline.check("durable-topic", phase.getReceiveRate());
+    }
+
+    @Test
+    public void transactedSessions() throws Exception {
+        Phase phase = run("transacted", "-q -n TEST.TRANSACTED -t -z 100 -m " + MESSAGES,
+                "-q -n TEST.TRANSACTED -t -z 100");
+        assertEquals(MESSAGES, phase.getSentMessages());
+        assertEquals(MESSAGES, phase.getReceivedMessages());
+        baseline.check("transacted", phase.getReceiveRate());
+    }
+
+    @Test
+    public void clientAcknowledgeWithBatching() throws Exception {
+        Phase phase = run("client-ack", "-q -n TEST.CLIENT_ACK -m " + MESSAGES,
+                "-q -n TEST.CLIENT_ACK -a CLIENT_ACKNOWLEDGE -z 100 --batch-linger 50");
+        assertEquals(MESSAGES, phase.getReceivedMessages());
+        baseline.check("client-ack-batching", phase.getReceiveRate());
+    }
+
+    @Test
+    public void selectorOnlyDeliversMatchingMessages() throws Exception {
+        //Tool arguments are split on whitespace so the selector is written without spaces
+        Phase phase = run("selector", "-n TEST.SELECTOR -m " + MESSAGES,
+                "-n TEST.SELECTOR -k " + MessageProperties.PRODUCER_SEQUENCE + "<=" + (MESSAGES / 2));
+        assertEquals(MESSAGES, phase.getSentMessages());
+        assertEquals(MESSAGES / 2, phase.getReceivedMessages());
+        baseline.check("selector", phase.getReceiveRate());
+    }
+
+    @Test
+    public void browserLeavesMessagesOnTheQueue() throws Exception {
+        run("browse-fill", "-q -n TEST.BROWSE -m " + MESSAGES, null);
+        Phase browse = run("browse", null, "-q -n TEST.BROWSE -b");
+        assertEquals(MESSAGES, browse.getReceivedMessages());
+        assertEquals(MESSAGES, run("browse-drain", null, "-q -n TEST.BROWSE").getReceivedMessages());
+        baseline.check("browser", browse.getReceiveRate());
+    }
+
+    @Test
+    public void temporaryQueuesArePrivateToEachTool() throws Exception {
+        //Each tool creates its own temporary queue, which only its own connection can consume from, so the consumer
+        //subscribes and stops cleanly without seeing any of the producer's messages
+        Phase phase = run("temporary", "-q -p -m " + MESSAGES, "-q -p");
+        assertEquals(MESSAGES, phase.getSentMessages());
+        assertEquals(0, phase.getReceivedMessages());
+        baseline.check("temporary-queue", phase.getSendRate());
+    }
+
+    private static Phase run(String name, String producerArgs, String consumerArgs) throws Exception {
+        Phase phase = new Phase(name, producerArgs != null ? Phase.toolArgs(NO_SHARED_ARGS, producerArgs) : null,
+                consumerArgs != null ? Phase.toolArgs(NO_SHARED_ARGS, consumerArgs + CONSUMER_RECEIVE_TIMEOUT) : null,
+                0, DRAIN_IDLE_MS, 30);
+        phase.execute();
+        phase.logResults(LOGGER);
+        return phase;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Jesse Fugitt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the counted length against what the JDK encoder actually produces.
+ */
+public class Utf8Test {
+
+    @Test
+    public void countsTheBytesTheEncoderWrites() {
+        String[] texts = {
+                "",
+                "plain ascii",
+                "caf\u00e9 na\u00efve",
+                "\u20ac100 \u65e5\u672c\u8a9e",
+                "emoji \ud83d\ude00 pair",
+                //Unpaired surrogates are replaced by the encoder
+                "lone \ud83d high",
+                "lone \ude00 low",
+                "ends high \ud83d"
+        };
+        for (String text : texts) {
+            assertEquals(text, text.getBytes(StandardCharsets.UTF_8).length, Utf8.encodedLength(text));
+        }
+    }
+
+    @Test
+    public void poolTextLengthsAreEncodedLengths() throws Exception {
+        PayloadPool pool = PayloadPool.random(64, 4, 42L);
+        for (int i = 0; i < pool.size(); i++) {
+            assertEquals(pool.bytesAt(i).length, pool.textLengthAt(i));
+        }
+    }
+}